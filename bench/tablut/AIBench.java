@@ -0,0 +1,68 @@
+package tablut;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of fixed-depth AI searches from each of the positions in
+ *  BenchPositions.  Each search starts with an empty transposition table,
+ *  so that repeating it measures the same work each time.
+ *  @author Thomas Nguyen
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AIBench {
+
+    /** The number of the position (see BenchPositions) to use. */
+    @Param({ "0", "1", "2", "3" })
+    public int position;
+
+    /** The depth to search. */
+    @Param({ "2", "3" })
+    public int depth;
+
+    /** True to search in PVS mode. */
+    @Param({ "false", "true" })
+    public boolean pvs;
+
+    /** Set up the board and the player. */
+    @Setup
+    public void setUp() {
+        _board = BenchPositions.position(position);
+        _ai = new AI(AI.DEFAULT_TIME_LIMIT, 1, false, pvs);
+        _ai.findMove(_board, 1);
+    }
+
+    /** Forget the results of the previous search. */
+    @Setup(Level.Invocation)
+    public void clearTable() {
+        _ai.clearTable();
+    }
+
+    /** Choose a move from the position by a search of the given depth. */
+    @Benchmark
+    public Move findMove() {
+        return _ai.findMove(_board, depth);
+    }
+
+    /** The position being searched. */
+    private Board _board;
+
+    /** The player searching it. */
+    private AI _ai;
+}
@@ -0,0 +1,41 @@
+package tablut;
+
+/** The positions used by the benchmarks: midgame positions reached from
+ *  the initial position by fixed sequences of moves, so that results from
+ *  different versions of the program are comparable.
+ *  @author Thomas Nguyen
+ */
+final class BenchPositions {
+
+    /** Move sequences, each leading from the initial position to one of
+     *  the benchmark positions. */
+    private static final String[] GAMES = {
+        "d1-3 e3-f a6-7 g5-4 f9-h f5-8 a5-6 f3-6 d9-8 e7-f b5-a e4-d a5-b "
+        + "d4-c a4-b d5-4 d3-f c4-2 a6-2 d4-e h5-7 f7-c e1-a c7-9 h7-g c9-6 "
+        + "f1-h f6-4",
+        "d1-2 e7-g a6-b g5-2 h5-8 g7-f e2-f f5-h d2-e e6-7 b6-9 h5-4 e2-d "
+        + "f7-i e1-c h4-f i4-1 f4-6 f9-8 c5-9 e9-g g2-7 d2-1 f6-7 f2-h d5-4 "
+        + "h2-a g7-8 f8-9 g8-2 i1-2 g2-7",
+        "i6-f e7-b h5-9 e4-f a4-e g5-6 i4-2 f4-h a5-2 e6-d d9-b e5-7 d1-3 "
+        + "g6-7 f9-6 d6-7 i5-6 c5-2 a2-4 d7-9 f6-9 c2-6 h9-i c6-2 i2-4 g7-9 "
+        + "e4-d e7-f i6-e c2-a b9-8 g9-3 f1-4 d9-a e1-a f5-h",
+        "d1-3 f5-8 a4-d e3-g f9-h g3-i d9-a i3-e e8-c e7-c e2-h g5-4 h5-f "
+        + "g4-f f5-g f4-h e1-b d5-9 a5-2 f8-6",
+    };
+
+    /** Return a new Board holding benchmark position K, for
+     *  0 <= K < count(). */
+    static Board position(int k) {
+        Board board = new Board();
+        for (String mv : GAMES[k].split(" ")) {
+            board.makeMove(Move.mv(mv));
+        }
+        assert board.winner() == null;
+        return board;
+    }
+
+    /** Return the number of benchmark positions. */
+    static int count() {
+        return GAMES.length;
+    }
+}
@@ -0,0 +1,106 @@
+package tablut;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import tablut.Move.MoveList;
+
+/** Benchmarks of the Board operations on which the AI's search spends
+ *  its time, on each of the positions in BenchPositions.
+ *  @author Thomas Nguyen
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BoardBench {
+
+    /** The number of the position (see BenchPositions) to use. */
+    @Param({ "0", "1", "2", "3" })
+    public int position;
+
+    /** Set up the board for the position being measured. */
+    @Setup
+    public void setUp() {
+        _board = BenchPositions.position(position);
+        _board.legalMoves(_board.turn(), _legalMoves);
+        ArrayList<Move> moves = new ArrayList<>();
+        for (MoveList[] rays : Move.ROOK_MOVES) {
+            for (MoveList ray : rays) {
+                moves.addAll(ray);
+            }
+        }
+        _rookMoves = moves.toArray(new Move[0]);
+    }
+
+    /** Generate all legal moves for the player to move. */
+    @Benchmark
+    public MoveList legalMoves() {
+        _board.legalMoves(_board.turn(), _moves);
+        return _moves;
+    }
+
+    /** Make and undo each legal move in turn. */
+    @Benchmark
+    public void makeMoveUndo(Blackhole bh) {
+        for (Move mv : _legalMoves) {
+            _board.makeMove(mv);
+            bh.consume(_board.hashKey());
+            _board.undo();
+        }
+    }
+
+    /** Encode the position as a string. */
+    @Benchmark
+    public String encodedBoard() {
+        return _board.encodedBoard();
+    }
+
+    /** Check the legality of every rook move on the board. */
+    @Benchmark
+    public int isLegal() {
+        int count = 0;
+        for (Move mv : _rookMoves) {
+            if (_board.isLegal(mv)) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Evaluate the position as the AI does at a leaf. */
+    @Benchmark
+    public int staticScore() {
+        return _ai.staticScore(_board);
+    }
+
+    /** The position being measured. */
+    private Board _board;
+
+    /** The legal moves in _board. */
+    private final MoveList _legalMoves = new MoveList();
+
+    /** Buffer for legalMoves. */
+    private final MoveList _moves = new MoveList();
+
+    /** Every rook move between two squares of the board. */
+    private Move[] _rookMoves;
+
+    /** An AI whose evaluation is measured. */
+    private final AI _ai = new AI();
+}
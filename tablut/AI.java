@@ -2,7 +2,16 @@ package tablut;
 
 
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import tablut.Move.MoveList;
 
 import static java.lang.Math.*;
 
@@ -29,30 +38,112 @@ class AI extends Player {
      */
     private static final int INFTY = Integer.MAX_VALUE;
 
+    /**
+     * Default time allowed for choosing a move, in milliseconds.
+     */
+    static final long DEFAULT_TIME_LIMIT = 1000;
+
     /**
      * A new AI with no piece or controller (intended to produce
      * a template).
      */
     AI() {
-        this(null, null);
+        this(DEFAULT_TIME_LIMIT, 1, false, false);
+    }
+
+    /**
+     * A new AI template whose players take about TIMELIMIT milliseconds
+     * to choose each move, searching with THREADS threads.  With more
+     * than one thread, they use Lazy SMP if LAZYSMP, and otherwise divide
+     * the moves at the root among the threads.  They search by principal
+     * variation search iff PVS, and otherwise by plain alpha-beta.
+     */
+    AI(long timeLimit, int threads, boolean lazySMP, boolean pvs) {
+        this(timeLimit, threads, lazySMP, pvs, false);
+    }
+
+    /**
+     * A new AI template as for AI(TIMELIMIT, THREADS, LAZYSMP, PVS), whose
+     * players ponder iff PONDER: that is, after each move they keep
+     * searching on one thread while the opponent chooses a reply, so
+     * that _table already holds much of what their next search needs.
+     */
+    AI(long timeLimit, int threads, boolean lazySMP, boolean pvs,
+       boolean ponder) {
+        this(timeLimit, threads, lazySMP, pvs, ponder, null, TABLE_LOG_SIZE);
     }
 
     /**
-     * A new AI playing PIECE under control of CONTROLLER.
+     * A new AI template as for AI(TIMELIMIT, THREADS, LAZYSMP, PVS), except
+     * that its players run all their searches in POOL, which they share,
+     * and that each of their tables holds 2**TABLELOGSIZE results.  Thus
+     * however many games use such players, no more than the parallelism
+     * of POOL threads search at once.
      */
-    AI(Piece piece, Controller controller) {
+    AI(long timeLimit, int threads, boolean lazySMP, boolean pvs,
+       ForkJoinPool pool, int tableLogSize) {
+        this(timeLimit, threads, lazySMP, pvs, false, pool, tableLogSize);
+    }
+
+    /**
+     * A new AI template with the settings described for the other
+     * constructors: TIMELIMIT, THREADS, LAZYSMP, PVS, PONDER, SHAREDPOOL
+     * (null if none), and TABLELOGSIZE.
+     */
+    private AI(long timeLimit, int threads, boolean lazySMP, boolean pvs,
+               boolean ponder, ForkJoinPool sharedPool, int tableLogSize) {
+        super(null, null);
+        _timeLimit = timeLimit;
+        _threads = threads;
+        _lazySMP = lazySMP;
+        _pvs = pvs;
+        _ponder = ponder;
+        _sharedPool = sharedPool;
+        if (sharedPool != null) {
+            _pool = sharedPool;
+        } else if (threads > 1) {
+            _pool = new ForkJoinPool(threads);
+        } else {
+            _pool = null;
+        }
+        _tableLogSize = tableLogSize;
+    }
+
+    /**
+     * A new AI playing PIECE under control of CONTROLLER, with the
+     * settings of TEMPLATE.
+     */
+    private AI(Piece piece, Controller controller, AI template) {
         super(piece, controller);
+        _timeLimit = template._timeLimit;
+        _threads = template._threads;
+        _lazySMP = template._lazySMP;
+        _pvs = template._pvs;
+        _ponder = template._ponder;
+        _sharedPool = template._sharedPool;
+        _pool = template._pool;
+        _tableLogSize = template._tableLogSize;
     }
 
     @Override
     Player create(Piece piece, Controller controller) {
-        return new AI(piece, controller);
+        return new AI(piece, controller, this);
     }
 
     @Override
     String myMove() {
-        Move mv = findMove();
+        stopPondering();
+        Move mv;
+        if (_sharedPool == null) {
+            mv = findMove();
+        } else {
+            mv = _sharedPool.invoke(
+                ForkJoinTask.adapt((Callable<Move>) this::findMove));
+        }
         _controller.reportMove(mv);
+        if (_ponder) {
+            startPondering(mv);
+        }
         return mv.toString();
     }
 
@@ -63,17 +154,187 @@ class AI extends Player {
 
     /**
      * Return a move for me from the current position, assuming there
-     * is a move.
+     * is a move.  Searches to depth 1, 2, ... until the time limit
+     * passes, and returns the move chosen by the deepest search that
+     * finished.  The depth-1 search always finishes.  In Lazy SMP mode,
+     * helper threads search the same position meanwhile, and contribute
+     * only through _table.  In PVS mode, each search after the first few
+     * starts with an aspiration window around the previous value,
+     * widening it to the full range on the side where the search fails.
      */
     private Move findMove() {
-        Board b = new Board(board());
-        _lastFoundMove = null;
-        if (b.turn() == BLACK) {
-            findMove(b, maxDepth(b), true, -1, -INFTY, INFTY);
-        } else {
-            findMove(b, maxDepth(b), true, 1, -INFTY, INFTY);
+        Board b = board().snapshot();
+        int sense = b.turn() == BLACK ? -1 : 1;
+        long deadline = System.currentTimeMillis() + _timeLimit;
+        Move best = null;
+        prepareSearch();
+        _stopTime = Long.MAX_VALUE;
+        List<ForkJoinTask<?>> helpers = startHelpers(b, sense);
+        int value = 0;
+        for (int depth = 1; depth <= maxDepth(b); depth += 1) {
+            _stopTime = depth == 1 ? Long.MAX_VALUE : deadline;
+            _lastFoundMove = null;
+            if (_threads > 1 && !_lazySMP) {
+                value = findMoveInParallel(b, depth, sense);
+            } else {
+                Searcher searcher = searcher();
+                int alpha = -INFTY, beta = INFTY;
+                if (_pvs && depth >= ASPIRATION_DEPTH
+                    && abs(value) < WILL_WIN_VALUE) {
+                    alpha = value - ASPIRATION_WINDOW;
+                    beta = value + ASPIRATION_WINDOW;
+                }
+                while (true) {
+                    value = searcher.search(b, depth, true, sense,
+                                            alpha, beta);
+                    if (_aborted || alpha < value && value < beta) {
+                        break;
+                    } else if (value <= alpha) {
+                        alpha = -INFTY;
+                    } else {
+                        beta = INFTY;
+                    }
+                }
+                _lastFoundMove = searcher._foundMove;
+            }
+            if (_aborted) {
+                break;
+            }
+            best = _lastFoundMove;
+            if (abs(value) >= WILL_WIN_VALUE
+                || System.currentTimeMillis() >= deadline) {
+                break;
+            }
+        }
+        _aborted = true;
+        for (ForkJoinTask<?> helper : helpers) {
+            helper.join();
         }
-        return _lastFoundMove;
+        return best;
+    }
+
+    /**
+     * Return the move that findMove would choose from BOARD, which is
+     * not changed, if it searched to exactly DEPTH levels, with no time
+     * limit and on one thread.  For benchmarks and tests.
+     */
+    Move findMove(Board board, int depth) {
+        findValue(board, depth);
+        return searcher()._foundMove;
+    }
+
+    /**
+     * Return the value, positive for WHITE, that findMove(BOARD, DEPTH)
+     * gives to BOARD, which is not changed.  For tests.
+     */
+    int findValue(Board board, int depth) {
+        Board b = board.snapshot();
+        prepareSearch();
+        _stopTime = Long.MAX_VALUE;
+        return searcher().search(b, depth, true, b.turn() == BLACK ? -1 : 1,
+                                 -INFTY, INFTY);
+    }
+
+    /** Discard the results of all earlier searches. */
+    void clearTable() {
+        if (_table != null) {
+            _table.clear();
+        }
+    }
+
+    /** Get ready to start a new search: create _table if needed, and
+     *  clear _aborted. */
+    private void prepareSearch() {
+        _aborted = false;
+        if (_table == null) {
+            _table = new TranspositionTable(_tableLogSize);
+        }
+        _table.newSearch();
+    }
+
+    /** Return the search state of the current thread. */
+    private Searcher searcher() {
+        return _searchers.computeIfAbsent(Thread.currentThread(),
+                                          thread -> new Searcher());
+    }
+
+    /**
+     * Start searching, on a new thread, the position reached by making my
+     * move MV in the current position, unless that ends the game.  The
+     * search deepens until stopPondering is called, or it has run for
+     * PONDER_LIMIT times my time limit, so that a player that is no
+     * longer used soon stops.  It serves only to fill _table.
+     */
+    private void startPondering(Move mv) {
+        Board b = board().snapshot();
+        b.makeMove(mv);
+        if (b.winner() != null) {
+            return;
+        }
+        int sense = b.turn() == BLACK ? -1 : 1;
+        prepareSearch();
+        _stopTime = System.currentTimeMillis() + PONDER_LIMIT * _timeLimit;
+        _ponderer = new Thread(() -> {
+            Searcher searcher = searcher();
+            for (int depth = 1; depth <= maxDepth(b) && !_aborted;
+                 depth += 1) {
+                searcher.search(b, depth, true, sense, -INFTY, INFTY);
+            }
+            _searchers.remove(Thread.currentThread());
+        });
+        _ponderer.setDaemon(true);
+        _ponderer.start();
+    }
+
+    /** Return true iff a search started by startPondering is still
+     *  running. */
+    boolean pondering() {
+        return _ponderer != null && _ponderer.isAlive();
+    }
+
+    /** Stop any search started by startPondering, and wait for it to
+     *  finish. */
+    @Override
+    void stopPondering() {
+        if (_ponderer == null) {
+            return;
+        }
+        _aborted = true;
+        while (_ponderer.isAlive()) {
+            try {
+                _ponderer.join();
+            } catch (InterruptedException excp) {
+                /* Keep waiting: the search stops within a few nodes. */
+            }
+        }
+        _ponderer = null;
+    }
+
+    /**
+     * In Lazy SMP mode, start _threads - 1 helper searches from position
+     * BOARD for the player indicated by SENSE and return them (otherwise,
+     * return an empty list).  Helpers run iterative deepening on private
+     * copies of BOARD until _aborted, with odd-numbered helpers a ply
+     * ahead, so that they tend to explore different parts of the tree
+     * and store results in _table that the main search will soon need.
+     */
+    private List<ForkJoinTask<?>> startHelpers(Board board, int sense) {
+        List<ForkJoinTask<?>> helpers = new ArrayList<>();
+        if (!_lazySMP || _threads <= 1) {
+            return helpers;
+        }
+        for (int k = 1; k < _threads; k += 1) {
+            Board b = board.snapshot();
+            int startDepth = 1 + k % 2;
+            helpers.add(_pool.submit(() -> {
+                Searcher searcher = searcher();
+                for (int depth = startDepth;
+                     depth <= maxDepth(b) && !_aborted; depth += 1) {
+                    searcher.search(b, depth, true, sense, -INFTY, INFTY);
+                }
+            }));
+        }
+        return helpers;
     }
 
     /**
@@ -83,50 +344,322 @@ class AI extends Player {
     private Move _lastFoundMove;
 
     /**
-     * Find a move from position BOARD and return its value, recording
-     * the move found in _lastFoundMove iff SAVEMOVE. The move
-     * should have maximal value or have value > BETA if SENSE==1,
-     * and minimal value or value < ALPHA if SENSE==-1. Searches up to
-     * DEPTH levels.  Searching at level 0 simply returns a static estimate
-     * of the board value and does not set _lastMoveFound.
+     * Find a move from position BOARD as for Searcher.findMove with
+     * SAVEMOVE true and a full window, searching DEPTH levels.  The first
+     * root move is searched by the calling thread; the rest are divided
+     * among _threads threads, each on its own copy of BOARD.  The best
+     * value found so far is shared through _rootBound, so that later
+     * moves are searched with narrower windows.
      */
-    private int findMove(Board board, int depth, boolean saveMove,
-                         int sense, int alpha, int beta) {
-        int value = 0;
-        if (depth == 0 || board.winner() != null) {
-            return staticScore(board);
+    private int findMoveInParallel(Board board, int depth, int sense) {
+        MoveList moves = new MoveList();
+        board.legalMoves(board.turn(), moves);
+        searcher().orderMoves(board, moves,
+                                    TranspositionTable.move(
+                                        _table.probe(board.hashKey())), 0);
+        _rootBound = new AtomicInteger(sense == 1 ? -INFTY : INFTY);
+        searchRootMove(board, moves.get(0), depth, sense);
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Move mv : moves.subList(1, moves.size())) {
+            tasks.add(() -> {
+                searchRootMove(board, mv, depth, sense);
+                return null;
+            });
         }
+        _pool.invokeAll(tasks);
+        return _rootBound.get();
+    }
+
+    /**
+     * Search MV from the position BOARD to total depth DEPTH on a private
+     * copy of BOARD, using the current _rootBound as the bound for the
+     * player indicated by SENSE, and record MV as _lastFoundMove if it
+     * improves on that bound.
+     */
+    private void searchRootMove(Board board, Move mv, int depth, int sense) {
+        Board b = board.snapshot();
+        b.makeMove(mv);
+        Searcher searcher = searcher();
+        int bound = _rootBound.get();
+        int value;
         if (sense == 1) {
-            value = -1 * INFTY;
-            List<Move> mves = board.legalMoves(WHITE);
-            for (Move mv : board.legalMoves(WHITE)) {
+            value = searcher.search(b, depth - 1, false, -1, bound, INFTY);
+        } else {
+            value = searcher.search(b, depth - 1, false, 1, -INFTY, bound);
+        }
+        if (_aborted) {
+            return;
+        }
+        synchronized (this) {
+            if (_lastFoundMove == null || value * sense > _rootBound.get()
+                * sense) {
+                _lastFoundMove = mv;
+                _rootBound.set(value);
+            }
+        }
+    }
+
+    /** The search state belonging to one thread. */
+    private class Searcher {
+
+        /**
+         * Search position BOARD as for findMove, with the same arguments
+         * and result, by principal variation search in PVS mode and by
+         * findMove otherwise.
+         */
+        int search(Board board, int depth, boolean saveMove,
+                   int sense, int alpha, int beta) {
+            if (!_pvs) {
+                return findMove(board, depth, saveMove, sense, alpha, beta);
+            } else if (sense == 1) {
+                return pvSearch(board, depth, saveMove, alpha, beta);
+            } else {
+                return -pvSearch(board, depth, saveMove, -beta, -alpha);
+            }
+        }
+
+        /**
+         * Find a move from position BOARD and return its value, recording
+         * the move found in _foundMove iff SAVEMOVE. The move
+         * should have maximal value or have value > BETA if SENSE==1,
+         * and minimal value or value < ALPHA if SENSE==-1. Searches up to
+         * DEPTH levels.  Searching at level 0 returns the value found by
+         * quiesce and does not set _foundMove.
+         * Once _stopTime has passed, sets _aborted and returns a
+         * meaningless value, leaving BOARD as it was.  Results are looked
+         * up in and saved to _table, and moves are tried in the order
+         * given by orderMoves.
+         */
+        int findMove(Board board, int depth, boolean saveMove,
+                     int sense, int alpha, int beta) {
+            int value = 0;
+            if (timeUp()) {
+                return 0;
+            }
+            if (board.winner() != null) {
+                return staticScore(board);
+            } else if (depth == 0) {
+                return sense == 1 ? quiesce(board, 0, alpha, beta)
+                    : -quiesce(board, 0, -beta, -alpha);
+            }
+            long key = board.hashKey();
+            long entry = _table.probe(key);
+            if (entry != 0 && !saveMove
+                && TranspositionTable.depth(entry) >= depth) {
+                int score = TranspositionTable.score(entry);
+                switch (TranspositionTable.bound(entry)) {
+                case TranspositionTable.EXACT:
+                    return score;
+                case TranspositionTable.LOWER:
+                    alpha = max(alpha, score);
+                    break;
+                default:
+                    beta = min(beta, score);
+                    break;
+                }
+                if (alpha >= beta) {
+                    return score;
+                }
+            }
+            int alpha0 = alpha, beta0 = beta;
+            Move best = null;
+            MoveList moves = moveList(depth);
+            board.legalMoves(sense == 1 ? WHITE : BLACK, moves);
+            orderMoves(board, moves, TranspositionTable.move(entry), _ply);
+            if (sense == 1) {
+                value = -1 * INFTY;
+                for (Move mv : moves) {
+                    board.makeMove(mv);
+                    _ply += 1;
+                    int temp = findMove(board, depth - 1, false, -1,
+                                        alpha, beta);
+                    _ply -= 1;
+                    board.undo();
+                    if (_aborted) {
+                        return value;
+                    }
+                    if (best == null || temp > value) {
+                        value = temp;
+                        best = mv;
+                        if (saveMove) {
+                            _foundMove = mv;
+                        }
+                        alpha = max(alpha, value);
+                    }
+                    if (alpha >= beta) {
+                        recordCutoff(board, mv, depth);
+                        break;
+                    }
+                }
+            } else {
+                value = INFTY;
+                for (Move mv : moves) {
+                    board.makeMove(mv);
+                    _ply += 1;
+                    int temp = findMove(board, depth - 1, false, 1,
+                                        alpha, beta);
+                    _ply -= 1;
+                    board.undo();
+                    if (_aborted) {
+                        return value;
+                    }
+                    if (best == null || temp < value) {
+                        value = temp;
+                        best = mv;
+                        if (saveMove) {
+                            _foundMove = mv;
+                        }
+                        beta = min(beta, value);
+                    }
+                    if (alpha >= beta) {
+                        recordCutoff(board, mv, depth);
+                        break;
+                    }
+                }
+            }
+            int bound = value <= alpha0 ? TranspositionTable.UPPER
+                : value >= beta0 ? TranspositionTable.LOWER
+                : TranspositionTable.EXACT;
+            _table.store(key, depth, bound, value, best);
+            return value;
+        }
+
+        /**
+         * Find a move from position BOARD by principal variation search in
+         * negamax form, and return its value for the player to move, which
+         * is between ALPHA and BETA if the true value is, no greater than
+         * ALPHA if the true value is, and no less than BETA if the true
+         * value is.  Records the move found in _foundMove iff SAVEMOVE.
+         * The first move is searched with the full window and the rest
+         * with null windows, repeating the search only for moves that
+         * prove better than the best so far.  Late quiet moves are first
+         * searched one level shallower.  Searches up to DEPTH levels, and
+         * otherwise behaves like findMove.
+         */
+        int pvSearch(Board board, int depth, boolean saveMove,
+                     int alpha, int beta) {
+            int sign = board.turn() == WHITE ? 1 : -1;
+            if (timeUp()) {
+                return 0;
+            }
+            if (board.winner() != null) {
+                return sign * staticScore(board);
+            } else if (depth == 0) {
+                return quiesce(board, 0, alpha, beta);
+            }
+            long key = board.hashKey();
+            long entry = _table.probe(key);
+            if (entry != 0 && !saveMove
+                && TranspositionTable.depth(entry) >= depth) {
+                int score = sign * TranspositionTable.score(entry);
+                switch (forSide(TranspositionTable.bound(entry), sign)) {
+                case TranspositionTable.EXACT:
+                    return score;
+                case TranspositionTable.LOWER:
+                    alpha = max(alpha, score);
+                    break;
+                default:
+                    beta = min(beta, score);
+                    break;
+                }
+                if (alpha >= beta) {
+                    return score;
+                }
+            }
+            int alpha0 = alpha;
+            int value = -INFTY;
+            Move best = null;
+            MoveList moves = moveList(depth);
+            board.legalMoves(board.turn(), moves);
+            orderMoves(board, moves, TranspositionTable.move(entry), _ply);
+            for (int i = 0; i < moves.size(); i += 1) {
+                Move mv = moves.get(i);
+                int reduction = i >= LMR_MOVES && depth >= LMR_DEPTH
+                    && mv.from() != board.kingPosition()
+                    && !board.isCapture(mv) ? 1 : 0;
                 board.makeMove(mv);
-                int temp = findMove(board, depth - 1, false, -1, alpha, beta);
+                _ply += 1;
+                int temp;
+                if (i == 0) {
+                    temp = -pvSearch(board, depth - 1, false, -beta, -alpha);
+                } else {
+                    temp = -pvSearch(board, depth - 1 - reduction, false,
+                                     -alpha - 1, -alpha);
+                    if (temp > alpha && reduction > 0) {
+                        temp = -pvSearch(board, depth - 1, false,
+                                         -alpha - 1, -alpha);
+                    }
+                    if (temp > alpha && temp < beta) {
+                        temp = -pvSearch(board, depth - 1, false,
+                                         -beta, -alpha);
+                    }
+                }
+                _ply -= 1;
                 board.undo();
-                if (temp >= value) {
+                if (_aborted) {
+                    return value;
+                }
+                if (temp > value) {
                     value = temp;
+                    best = mv;
                     if (saveMove) {
-                        _lastFoundMove = mv;
+                        _foundMove = mv;
                     }
                     alpha = max(alpha, value);
                 }
                 if (alpha >= beta) {
+                    recordCutoff(board, mv, depth);
                     break;
                 }
             }
+            int bound = value <= alpha0 ? TranspositionTable.UPPER
+                : value >= beta ? TranspositionTable.LOWER
+                : TranspositionTable.EXACT;
+            _table.store(key, depth, forSide(bound, sign), sign * value, best);
             return value;
-        } else {
-            value = INFTY;
-            for (Move mv : board.legalMoves(BLACK)) {
+        }
+
+        /**
+         * Return the value of BOARD for the player to move, as for
+         * pvSearch, searching only moves that capture or that bring the
+         * king to or within reach of an edge (see Board.isKingEscape),
+         * until the position is quiet.  At each level the player to move
+         * may instead stand pat, taking the static score.  LEVEL is the
+         * number of such moves already made; the search stops at
+         * QUIESCENCE_DEPTH of them.
+         */
+        int quiesce(Board board, int level, int alpha, int beta) {
+            if (timeUp()) {
+                return 0;
+            }
+            int value = (board.turn() == WHITE ? 1 : -1) * staticScore(board);
+            if (board.winner() != null || level == QUIESCENCE_DEPTH
+                || value >= beta) {
+                return value;
+            }
+            alpha = max(alpha, value);
+            MoveList captures = moveList(MAX_DEPTH + 1 + 2 * level),
+                escapes = moveList(MAX_DEPTH + 2 + 2 * level);
+            board.captureMoves(board.turn(), captures);
+            escapes.clear();
+            if (board.turn() == WHITE) {
+                board.kingEscapeMoves(escapes);
+            }
+            int n = captures.size();
+            for (int k = 0; k < n + escapes.size(); k += 1) {
+                Move mv = k < n ? captures.get(k) : escapes.get(k - n);
+                if (k >= n && board.isCapture(mv)) {
+                    continue;
+                }
                 board.makeMove(mv);
-                int temp = findMove(board, depth - 1, false, 1, alpha, beta);
+                int temp = -quiesce(board, level + 1, -beta, -alpha);
                 board.undo();
-                if (temp <= value) {
+                if (_aborted) {
+                    return value;
+                }
+                if (temp > value) {
                     value = temp;
-                    if (saveMove) {
-                        _lastFoundMove = mv;
-                    }
-                    beta = min(beta, value);
+                    alpha = max(alpha, value);
                 }
                 if (alpha >= beta) {
                     break;
@@ -134,30 +667,224 @@ class AI extends Player {
             }
             return value;
         }
+
+        /** Count a node searched, and return true iff the search has
+         *  been abandoned, setting _aborted if _stopTime has passed. */
+        private boolean timeUp() {
+            _nodes += 1;
+            if ((_nodes & TIME_CHECK_INTERVAL) == 0
+                && System.currentTimeMillis() >= _stopTime) {
+                _aborted = true;
+            }
+            return _aborted;
+        }
+
+        /**
+         * Reorder MOVES, the legal moves in BOARD at PLY plies below the
+         * root, so that the most promising come first: HASHMOVE (the best
+         * move stored in _table, or null), then captures, then the two
+         * killer moves at PLY, then the rest by decreasing history score.
+         */
+        void orderMoves(Board board, MoveList moves, Move hashMove,
+                        int ply) {
+            int n = moves.size();
+            if (_orderKeys.length < n) {
+                _orderKeys = new int[2 * n];
+            }
+            Move[] killers = _killers[min(ply, MAX_DEPTH)];
+            for (int i = 0; i < n; i += 1) {
+                Move mv = moves.get(i);
+                int key;
+                if (mv == hashMove) {
+                    key = HASH_MOVE_KEY;
+                } else if (board.isCapture(mv)) {
+                    key = CAPTURE_KEY;
+                } else if (mv == killers[0]) {
+                    key = KILLER_KEY;
+                } else if (mv == killers[1]) {
+                    key = KILLER_KEY - 1;
+                } else {
+                    key = _history[mv.from().index()][mv.to().index()];
+                }
+                int j;
+                for (j = i; j > 0 && _orderKeys[j - 1] < key; j -= 1) {
+                    _orderKeys[j] = _orderKeys[j - 1];
+                    moves.set(j, moves.get(j - 1));
+                }
+                _orderKeys[j] = key;
+                moves.set(j, mv);
+            }
+        }
+
+        /** Note that MV, made from BOARD at DEPTH levels from the search
+         *  horizon, caused a cutoff.  Unless it is a capture (which is
+         *  tried early anyway), make it the first killer move at the
+         *  current ply and raise its history score. */
+        private void recordCutoff(Board board, Move mv, int depth) {
+            if (board.isCapture(mv)) {
+                return;
+            }
+            Move[] killers = _killers[min(_ply, MAX_DEPTH)];
+            if (killers[0] != mv) {
+                killers[1] = killers[0];
+                killers[0] = mv;
+            }
+            int[] history = _history[mv.from().index()];
+            history[mv.to().index()] += depth * depth;
+            if (history[mv.to().index()] > HISTORY_LIMIT) {
+                for (int[] row : _history) {
+                    for (int k = 0; k < row.length; k += 1) {
+                        row[k] /= 2;
+                    }
+                }
+            }
+        }
+
+        /** Return the move buffer for searches of depth DEPTH, which is
+         *  reused by every node at that depth.  Quiescence searches use
+         *  DEPTH values above MAX_DEPTH. */
+        private MoveList moveList(int depth) {
+            while (_moveLists.size() <= depth) {
+                _moveLists.add(new MoveList());
+            }
+            return _moveLists.get(depth);
+        }
+
+        /** Move buffers for each search depth. */
+        private final ArrayList<MoveList> _moveLists = new ArrayList<>();
+
+        /** Number of positions searched so far. */
+        private long _nodes;
+
+        /** Number of moves between the position being searched and the
+         *  position the current search started from. */
+        private int _ply;
+
+        /** The two most recent quiet moves to cause a cutoff at each ply,
+         *  most recent first. */
+        private final Move[][] _killers = new Move[MAX_DEPTH + 1][2];
+
+        /** _history[i][j] grows with the number and depth of cutoffs caused
+         *  by quiet moves from the square with index i to that with index
+         *  j. */
+        private final int[][] _history =
+            new int[Square.NUM_SQUARES][Square.NUM_SQUARES];
+
+        /** Sort keys of the moves being ordered by orderMoves. */
+        private int[] _orderKeys = new int[0];
+
+        /** The move found by the last call to findMove with SAVEMOVE. */
+        private Move _foundMove;
+    }
+
+    /** Return the bound type BOUND of a score, converted to apply to the
+     *  score multiplied by SIGN (1 or -1).  _table holds scores from
+     *  WHITE's point of view, while pvSearch uses the mover's. */
+    private static int forSide(int bound, int sign) {
+        if (sign == 1 || bound == TranspositionTable.EXACT) {
+            return bound;
+        }
+        return bound == TranspositionTable.LOWER ? TranspositionTable.UPPER
+            : TranspositionTable.LOWER;
     }
 
-    /** index of the moves starting at thirteen. */
-    public static final int MOVEINDEX = 30;
+    /** The deepest search that findMove will attempt. */
+    public static final int MAX_DEPTH = 32;
 
     /**
      * Return a heuristically determined maximum search depth
-     * based on characteristics of BOARD.
+     * based on characteristics of BOARD.  Within it, the depth
+     * actually reached is set by the time limit.
      */
     private static int maxDepth(Board board) {
-        if (board.moveCount() < MOVEINDEX) {
-            return 1;
-        } else if (board.moveCount() < 2 * MOVEINDEX) {
-            return 1;
-        } else if (board.moveCount() < 3 * MOVEINDEX) {
-            return 1;
-        }
-        return 1;
+        return MAX_DEPTH;
     }
 
+    /** The clock is read once every TIME_CHECK_INTERVAL + 1 nodes
+     *  (a power of 2 less 1). */
+    private static final int TIME_CHECK_INTERVAL = 0x3ff;
+
+    /** Sort keys used by orderMoves for the hash move, captures, and the
+     *  first killer move.  History scores are kept below HISTORY_LIMIT,
+     *  under all of them. */
+    private static final int
+        HASH_MOVE_KEY = Integer.MAX_VALUE, CAPTURE_KEY = 3 << 28,
+        KILLER_KEY = 2 << 28, HISTORY_LIMIT = 1 << 28;
+
+    /** In PVS mode, moves after the first LMR_MOVES at a node with at
+     *  least LMR_DEPTH levels to go are searched with reduced depth first,
+     *  unless they capture or move the king. */
+    private static final int LMR_MOVES = 3, LMR_DEPTH = 3;
+
+    /** In PVS mode, searches of at least ASPIRATION_DEPTH levels begin
+     *  with a window of ASPIRATION_WINDOW either side of the value found
+     *  by the previous search. */
+    private static final int ASPIRATION_DEPTH = 3, ASPIRATION_WINDOW = 50;
+
+    /** Pondering stops after PONDER_LIMIT times the time limit. */
+    private static final int PONDER_LIMIT = 30;
+
+    /** The most moves that quiesce will search beyond the horizon. */
+    private static final int QUIESCENCE_DEPTH = 8;
+
+    /** Default base-2 logarithm of the number of entries in _table. */
+    private static final int TABLE_LOG_SIZE = 20;
+
+    /** Results of earlier searches, shared by all of my searches.  Created
+     *  on first use, since templates never search. */
+    private TranspositionTable _table;
+
+    /** Milliseconds allowed for each move. */
+    private final long _timeLimit;
+
+    /** Number of threads to search with. */
+    private final int _threads;
+
+    /** True iff multiple threads search by Lazy SMP rather than by
+     *  dividing the root moves among them. */
+    private final boolean _lazySMP;
+
+    /** True iff searches use pvSearch rather than findMove. */
+    private final boolean _pvs;
+
+    /** True iff I search during my opponent's turns. */
+    private final boolean _ponder;
+
+    /** The thread searching during my opponent's turn, if any. */
+    private Thread _ponderer;
+
+    /** Base-2 logarithm of the number of entries in _table. */
+    private final int _tableLogSize;
+
+    /** If non-null, the pool in which all my searches run, shared with
+     *  the other players created from my template. */
+    private final ForkJoinPool _sharedPool;
+
+    /** The threads used when _threads > 1: _sharedPool if there is one,
+     *  and otherwise a pool created by my template and shared with the
+     *  other players created from it. */
+    private final ForkJoinPool _pool;
+
+    /** The search state of each thread that has searched for me.  Kept
+     *  here rather than in a ThreadLocal, since Searchers refer to me, and
+     *  would otherwise keep me alive as long as their threads. */
+    private final Map<Thread, Searcher> _searchers =
+        new ConcurrentHashMap<>();
+
+    /** During a parallel search, the value of _lastFoundMove. */
+    private AtomicInteger _rootBound;
+
+    /** Time (as for System.currentTimeMillis) after which the current
+     *  search is abandoned. */
+    private volatile long _stopTime;
+
+    /** True iff the current search ran out of time. */
+    private volatile boolean _aborted;
+
     /**
      * Return a heuristic value for BOARD.
      */
-    private int staticScore(Board board) {
+    int staticScore(Board board) {
         int score = 0;
         Piece winner = board.winner();
         if (winner == BLACK) {
@@ -165,9 +892,7 @@ class AI extends Player {
         } else if (winner == WHITE) {
             return WINNING_VALUE;
         }
-        int whiteBlack = board.pieceLocations(WHITE).size()
-                - board.pieceLocations(BLACK).size();
-        score = whiteBlack;
+        score = board.evaluation();
         return score;
     }
 
@@ -3,17 +3,19 @@ package tablut;
 
 
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
-import java.util.Stack;
+import java.util.Random;
+
+import tablut.Move.MoveList;
 
 import java.util.HashSet;
 
 
 import static tablut.Piece.*;
 import static tablut.Square.*;
-import static tablut.Move.mv;
+import static tablut.Move.ROOK_MOVES;
 
 
 /** The state of a Tablut Game.
@@ -21,14 +23,44 @@ import static tablut.Move.mv;
  */
 class Board {
 
-    /** The board. */
-    private Piece[][] _board;
+    /** The attackers: bit I of this 81-bit set (word I / 64, bit I % 64)
+     *  is on iff the square with index I holds a BLACK piece. */
+    private final long[] _black = new long[2];
+
+    /** The defenders, including the king, in the same format as _black. */
+    private final long[] _white = new long[2];
+
+    /** The king's square, or null if the king has been captured.  Kept up
+     *  to date by put and undo, so that king queries are field reads. */
+    private Square _king;
 
     /** The number of squares on a side of the board. */
     static final int SIZE = 9;
 
-    /** the stack of all the history of moves. */
-    private Stack<String> record = new Stack<>();
+    /** The undo journal: _undoMoves[k] describes the k-th move still on
+     *  the board, packed as described at UNDO_FROM, and _undoKeys[k] is
+     *  hashKey() before it.  Only the first _undoSize entries are used. */
+    private int[] _undoMoves = new int[INITIAL_UNDO_SIZE];
+    /** Hash keys preceding each move in _undoMoves. */
+    private long[] _undoKeys = new long[INITIAL_UNDO_SIZE];
+    /** Values of _placement preceding each move in _undoMoves. */
+    private int[] _undoPlacements = new int[INITIAL_UNDO_SIZE];
+    /** Number of entries in the undo journal. */
+    private int _undoSize;
+
+    /** The number of times each position (by hashKey()) has occurred since
+     *  the initial position or the last clearUndo(), excluding those
+     *  counted in _history. */
+    private PositionCounts _positions = new PositionCounts();
+
+    /** For a board made by snapshot(), the positions that occurred before
+     *  it was made, and otherwise null.  Never modified, so that any number
+     *  of boards (possibly on different threads) may share it. */
+    private PositionCounts _history;
+
+    /** If non-null, the combined contents of _history and _positions,
+     *  frozen for sharing by snapshots.  Reset when _positions changes. */
+    private PositionCounts _frozenHistory;
 
     /** The throne (or castle) square and its four surrounding squares.. */
     static final Square THRONE = sq(4, 4),
@@ -68,42 +100,94 @@ class Board {
             return;
         }
         init();
-        this.record = model.record;
+        this._undoMoves = Arrays.copyOf(model._undoMoves,
+                                        model._undoMoves.length);
+        this._undoKeys = Arrays.copyOf(model._undoKeys,
+                                       model._undoKeys.length);
+        this._undoPlacements = Arrays.copyOf(model._undoPlacements,
+                                             model._undoPlacements.length);
+        this._undoSize = model._undoSize;
+        this._positions = new PositionCounts(model._positions);
+        this._history = model._history;
+        this._frozenHistory = model._frozenHistory;
+        this._repeated = model._repeated;
         this._turn = model._turn;
         this._winner = model._winner;
-        this._board = model._board;
+        System.arraycopy(model._black, 0, this._black, 0, _black.length);
+        System.arraycopy(model._white, 0, this._white, 0, _white.length);
+        this._king = model._king;
+        this._hash = model._hash;
+        this._placement = model._placement;
         this._moveCount = model._moveCount;
         this._moveLimit = model._moveLimit;
     }
 
+    /** Return a copy of me that plays on independently of me, for searches.
+     *  Only the current position is copied: the earlier positions are
+     *  shared with me (and with my other snapshots) as an immutable table
+     *  that counts them for repetitions, and the copy cannot undo past the
+     *  present.  Thus the cost of a snapshot does not grow with the length
+     *  of the game, except that the first snapshot after a move freezes my
+     *  position counts.  Concurrent calls are safe provided that nothing
+     *  modifies me meanwhile. */
+    Board snapshot() {
+        Board result = new Board(true);
+        System.arraycopy(_black, 0, result._black, 0, _black.length);
+        System.arraycopy(_white, 0, result._white, 0, _white.length);
+        result._king = _king;
+        result._turn = _turn;
+        result._winner = _winner;
+        result._repeated = _repeated;
+        result._hash = _hash;
+        result._placement = _placement;
+        result._moveCount = _moveCount;
+        result._moveLimit = _moveLimit;
+        result._history = result._frozenHistory = frozenHistory();
+        return result;
+    }
+
+    /** An uninitialized board, for use by snapshot().  UNUSED
+     *  distinguishes this from Board(). */
+    private Board(boolean unused) {
+    }
+
+    /** Return an immutable table of the positions that have occurred
+     *  since the initial position or the last clearUndo(). */
+    private PositionCounts frozenHistory() {
+        if (_frozenHistory == null) {
+            if (_history == null) {
+                _frozenHistory = new PositionCounts(_positions);
+            } else if (_positions.size() == 0) {
+                _frozenHistory = _history;
+            } else {
+                PositionCounts all = new PositionCounts(_history);
+                all.addAll(_positions);
+                _frozenHistory = all;
+            }
+        }
+        return _frozenHistory;
+    }
+
     /** Clears the board to the initial position. */
     void init() {
         _turn = BLACK;
+        _hash = 0;
+        _placement = 0;
         _winner = null;
         _moveCount = 0;
         Integer big = Integer.MAX_VALUE;
         _moveLimit = big;
-        _board = new Piece[SIZE][SIZE];
-        Piece king = KING;
-        _board[4][4] = king;
+        clear(_black);
+        clear(_white);
+        _king = null;
+        put(KING, THRONE);
         for (Square x : INITIAL_ATTACKERS) {
-            Piece y = BLACK;
-            _board[x.col()][x.row()] = y;
+            put(BLACK, x);
         }
         for (Square x : INITIAL_DEFENDERS) {
-            Piece y = WHITE;
-            _board[x.col()][x.row()] = y;
-        }
-        for (int x = 0; x < SIZE; x++) {
-            for (int y = 0; y < SIZE; y++) {
-                if (_board[x][y] == null) {
-                    Piece empty = EMPTY;
-                    _board[x][y] = empty;
-                }
-            }
+            put(WHITE, x);
         }
         clearUndo();
-        record.add(encodedBoard());
     }
 
     /** Set the move limit to LIM.  It is an error if 2*LIM <= moveCount().
@@ -117,6 +201,22 @@ class Board {
         return _turn;
     }
 
+    /** Make SIDE the player to move. */
+    private void setTurn(Piece side) {
+        if (side != _turn) {
+            _hash ^= WHITE_TO_MOVE;
+            _turn = side;
+        }
+    }
+
+    /** Return the Zobrist key of the current position: the XOR of
+     *  ZOBRIST entries of all pieces, and of WHITE_TO_MOVE iff it is
+     *  WHITE's turn.  Equal positions have equal keys; different positions
+     *  almost always have different ones. */
+    long hashKey() {
+        return _hash;
+    }
+
     /** Return the winner in the current position, or null if there is no winner
      *  yet. */
     Piece winner() {
@@ -131,7 +231,13 @@ class Board {
     /** Record current position and set winner() next mover if the current
      *  position is a repeat. */
     private void checkRepeated() {
-        if (record.contains(encodedBoard())) {
+        _frozenHistory = null;
+        int count = _positions.add(_hash);
+        if (_history != null) {
+            count += _history.count(_hash);
+        }
+        _repeated = count > 1;
+        if (_repeated) {
             _winner = _turn;
         }
     }
@@ -144,24 +250,28 @@ class Board {
 
     /** Return location of the king. */
     Square kingPosition() {
-
-        for (Square s : SQUARE_LIST) {
-            if (get(s) == KING) {
-                return s;
-            }
-        }
-        return null;
+        return _king;
     }
 
     /** Return the contents the square at S. */
     final Piece get(Square s) {
-        return get(s.col(), s.row());
+        return get(s.index());
     }
 
     /** Return the contents of the square at (COL, ROW), where
      *  0 <= COL, ROW <= 9. */
     final Piece get(int col, int row) {
-        return _board[col][row];
+        return get(row * SIZE + col);
+    }
+
+    /** Return the contents of the square with index INDEX. */
+    private Piece get(int index) {
+        if (contains(_black, index)) {
+            return BLACK;
+        } else if (contains(_white, index)) {
+            return _king != null && _king.index() == index ? KING : WHITE;
+        }
+        return EMPTY;
     }
 
     /** Return the contents of the square at COL ROW. */
@@ -169,15 +279,39 @@ class Board {
         return get(col - 'a', row - '1');
     }
 
-    /** Set square S to P. */
+    /** Set square S to P.  There is only one king, so putting a KING
+     *  leaves any previous king as an ordinary WHITE piece. */
     final void put(Piece p, Square s) {
-        _board[s.col()][s.row()] = p;
-    }
-
-    /** Set square S to P and record for undoing. */
-    final void revPut(Piece p, Square s) {
-        record.push(encodedBoard());
-        put(p, s);
+        int i = s.index();
+        Piece old = get(i);
+        _hash ^= ZOBRIST[old.ordinal()][i] ^ ZOBRIST[p.ordinal()][i];
+        _placement += PLACEMENT[p.ordinal()][i] - PLACEMENT[old.ordinal()][i];
+        remove(_black, i);
+        remove(_white, i);
+        if (_king == s) {
+            _king = null;
+        }
+        switch (p) {
+        case BLACK:
+            add(_black, i);
+            break;
+        case KING:
+            if (_king != null) {
+                int k = _king.index();
+                _hash ^= ZOBRIST[KING.ordinal()][k]
+                    ^ ZOBRIST[WHITE.ordinal()][k];
+                _placement += PLACEMENT[WHITE.ordinal()][k]
+                    - PLACEMENT[KING.ordinal()][k];
+            }
+            _king = s;
+            add(_white, i);
+            break;
+        case WHITE:
+            add(_white, i);
+            break;
+        default:
+            break;
+        }
     }
 
     /** Set square COL ROW to P. */
@@ -189,43 +323,13 @@ class Board {
      *  board.  For this to be true, FROM-TO must be a rook move and the
      *  squares along it, other than FROM, must be empty. */
     boolean isUnblockedMove(Square from, Square to) {
-        boolean temp = true;
-        if (from.isRookMove(to)) {
-            if (from.row() == to.row()) {
-                if (from.col() < to.col()) {
-                    for (int x = from.col() + 1; x <= to.col(); x++) {
-                        if (_board[x][from.row()] != EMPTY) {
-                            temp = false;
-                            break;
-                        }
-                    }
-                } else {
-                    for (int x = from.col() - 1; x > from.col() - 1; x--) {
-                        if (_board[x][from.row()] != EMPTY) {
-                            temp = false;
-                            break;
-                        }
-                    }
-                }
-            } else if (from.col() == to.col()) {
-                if (from.row() < to.row()) {
-                    for (int x = from.row() + 1; x <= to.row(); x++) {
-                        if (_board[from.col()][x] != EMPTY) {
-                            temp = false;
-                            break;
-                        }
-                    }
-                } else {
-                    for (int x = from.row() - 1; x > to.row() - 1; x--) {
-                        if (_board[from.col()][x] != EMPTY) {
-                            temp = false;
-                            break;
-                        }
-                    }
-                }
-            }
+        if (!from.isRookMove(to)) {
+            return false;
         }
-        return temp;
+        int d = from.direction(to);
+        long[] path = RAYS[from.index()][d], beyond = RAYS[to.index()][d];
+        return ((path[0] & ~beyond[0] & (_black[0] | _white[0]))
+                | (path[1] & ~beyond[1] & (_black[1] | _white[1]))) == 0;
     }
 
 
@@ -236,18 +340,8 @@ class Board {
 
     /** Return true iff FROM-TO is a valid move. */
     boolean isLegal(Square from, Square to) {
-        if (from != to && isUnblockedMove(from, to) && isLegal(from)
-                && _board[to.col()][to.row()] == EMPTY
-                && !record.contains(mv(from, to))) {
-            if (to != THRONE) {
-                return true;
-            } else {
-                if (kingPosition() != null) {
-                    return kingPosition() == from;
-                }
-            }
-        }
-        return false;
+        return from != to && isUnblockedMove(from, to) && isLegal(from)
+            && (to != THRONE || from == _king);
     }
 
     /** Return true iff MOVE is a legal move in the current
@@ -259,66 +353,107 @@ class Board {
     /** Move FROM-TO, assuming this is a legal move. */
     void makeMove(Square from, Square to) {
         if (isLegal(from, to)) {
-            record.add(encodedBoard());
-            _board[to.col()][to.row()] = _board[from.col()][from.row()];
-            _board[from.col()][from.row()] = EMPTY;
-            if (_turn == BLACK) {
-                _turn = WHITE;
-            } else {
-                _turn = BLACK;
+            Piece moved = get(from);
+            int undo = (from.index() << UNDO_FROM) | (to.index() << UNDO_TO)
+                | (moved.ordinal() << UNDO_PIECE)
+                | ((_winner == null ? 0 : _winner.ordinal()) << UNDO_WINNER)
+                | ((_king == null ? NO_KING : _king.index()) << UNDO_KING);
+            long key = _hash;
+            int placement = _placement;
+            int captures = captureDirections(from, to);
+            put(EMPTY, from);
+            put(moved, to);
+            setTurn(_turn.opponent());
+            for (int d = 0; d < 4; d += 1) {
+                if ((captures & (1 << d)) != 0) {
+                    put(EMPTY, to.rookMove(d, 1));
+                }
             }
-            captureUp(to);
-            captureDown(to);
-            captureLeft(to);
-            captureRight(to);
+            pushUndo(undo | (captures << UNDO_CAPTURES), key, placement);
             _moveCount++;
             if (_moveCount >= _moveLimit) {
                 _winner = _turn;
             }
-            if (legalMoves(_turn).isEmpty()) {
+            if (!hasMove(_turn)) {
                 _winner = _turn.opponent();
             }
-            if (kingPosition() == null) {
+            if (_king == null) {
                 _winner = BLACK;
-            } else if (kingPosition().row() == SIZE - 1
-                    || kingPosition().col() == SIZE - 1
-                    || kingPosition().row() == 0
-                    || kingPosition().col() == 0) {
+            } else if (_king.isEdge()) {
                 _winner = WHITE;
             }
             checkRepeated();
         }
     }
 
-    /** a list of NSWE thrones.  */
-    private static final ArrayList<Square> KINGSQUARES = new ArrayList<>();
+    /** Return the set of directions (bit d for Square direction d) in which
+     *  moving the piece on FROM to TO would capture, assuming FROM-TO is
+     *  legal.  The board is not changed: each square is judged by what it
+     *  would hold after the move.  The candidate victims and anvils are
+     *  those listed in CAPTURE_PATTERNS for TO. */
+    int captureDirections(Square from, Square to) {
+        int f = from.index(), t = to.index();
+        boolean black = contains(_black, f);
+        long[] theirs = black ? _white : _black;
+        int result = 0;
+        for (int pattern : CAPTURE_PATTERNS[t]) {
+            int victim = pattern & SQUARE_BITS;
+            if (!contains(theirs, victim)) {
+                continue;
+            }
+            boolean captured;
+            if ((pattern & VICTIM_NEAR_THRONE) != 0 && _king != null
+                && victim == _king.index()) {
+                captured = surroundsKing(victim, f, t);
+            } else {
+                captured = isHostile((pattern >>> PATTERN_ANVIL) & SQUARE_BITS,
+                                     (pattern & ANVIL_IS_THRONE) != 0,
+                                     black, f, t);
+            }
+            if (captured) {
+                result |= 1 << (pattern >>> PATTERN_DIRECTION);
+            }
+        }
+        return result;
+    }
 
-    static {
-        KINGSQUARES.add(NTHRONE);
-        KINGSQUARES.add(STHRONE);
-        KINGSQUARES.add(ETHRONE);
-        KINGSQUARES.add(WTHRONE);
+    /** Return true iff MOVE would capture at least one piece. */
+    boolean isCapture(Move move) {
+        return captureDirections(move.from(), move.to()) != 0;
     }
 
-    /** Check to see if SQ is hostile!
-     * SQ is a square
-     * @return it returns a boolean*/
-    Boolean isHostile(Square sq) {
-        if (sq == THRONE && get(sq) == EMPTY) {
-            return true;
-        } else if (get(sq) == _turn.opponent()) {
-            return true;
-        } else if (_turn == BLACK && get(sq) == KING) {
+    /** Return true iff MOVE is a king move to an edge square, or to a
+     *  square from which the king would have an unblocked path to one
+     *  once any pieces it captures are removed. */
+    boolean isKingEscape(Move move) {
+        Square from = move.from(), to = move.to();
+        if (from != _king) {
+            return false;
+        } else if (to.isEdge()) {
             return true;
-        } else if (_turn == WHITE) {
-            int blackCheck = 0;
-            for (Square s : KINGSQUARES) {
-                if (get(s) == (BLACK)) {
-                    blackCheck++;
+        }
+        int f = from.index();
+        long occupied0 = _black[0] | _white[0],
+            occupied1 = _black[1] | _white[1];
+        if (f < Long.SIZE) {
+            occupied0 &= ~(1L << f);
+        } else {
+            occupied1 &= ~(1L << f);
+        }
+        int captures = -1;
+        for (int d = 0; d < 4; d += 1) {
+            long[] ray = RAYS[to.index()][d];
+            long blockers0 = ray[0] & occupied0,
+                blockers1 = ray[1] & occupied1;
+            if ((blockers0 | blockers1) == 0) {
+                return true;
+            } else if (Long.bitCount(blockers0) + Long.bitCount(blockers1) == 1
+                       && contains(NEIGHBORS[to.index()],
+                                   nearestPiece(to.index(), d))) {
+                if (captures == -1) {
+                    captures = captureDirections(from, to);
                 }
-            }
-            if (sq == THRONE && get(sq) != EMPTY) {
-                if (blackCheck == 3) {
+                if ((captures & (1 << d)) != 0) {
                     return true;
                 }
             }
@@ -326,119 +461,53 @@ class Board {
         return false;
     }
 
-    /** check if SIDE2 is an opponent of SIDE1.
-     * SIDE1 and SIDE2 are the pieces
-     * @return it returns a boolean*/
-    boolean isOpponent(Piece side1, Piece side2) {
-        if (side1 == BLACK) {
-            if (side2 == WHITE || side2 == KING) {
-                return true;
-            }
-        } else if (side1 == WHITE || side1 == KING) {
-            if (side2 == BLACK) {
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /** Check if you capture SQ normally or if it's the King exception.
-     *  SQ for square
-     *  @return it returns a boolean*/
-    boolean isNormalCapture(Square sq) {
-        if (get(sq) != KING) {
+    /** Return true iff the anvil square with index SQ, which is the throne
+     *  iff THRONE, would be hostile to the opponents of the player moving
+     *  from the square with index FROM to that with index TO after the
+     *  move.  The player is BLACK iff BLACK.  Hostile squares are the
+     *  empty throne, those held by the player, and (when BLACK moves) the
+     *  occupied throne with BLACK on three of its neighbors.  An anvil is
+     *  never FROM or TO, since the victim lies between it and TO. */
+    private boolean isHostile(int sq, boolean throne, boolean black,
+                              int from, int to) {
+        if (contains(black ? _black : _white, sq)) {
+            return true;
+        } else if (!throne) {
+            return false;
+        } else if (!contains(_white, sq)) {
             return true;
-        } else {
-            return sq != THRONE && !KINGSQUARES.contains(sq);
-        }
-    }
-
-    /** Check if KING is surrounded by hostile squares.
-     * KING is a square that is a king
-     * @return it returns a boolean*/
-    boolean hostileAround(Square king) {
-        int temp = 0;
-        if (isHostile(sq(king.col() + 1, king.row()))) {
-            temp++;
-        }
-        if (isHostile(sq(king.col() - 1, king.row()))) {
-            temp++;
-        }
-        if (isHostile(sq(king.col(), king.row() + 1))) {
-            temp++;
         }
-        if (isHostile(sq(king.col(), king.row() - 1))) {
-            temp++;
+        long[] near = NEIGHBORS[THRONE.index()];
+        int attackers = Long.bitCount(near[0] & _black[0])
+            + Long.bitCount(near[1] & _black[1]);
+        if (contains(near, to)) {
+            attackers += 1;
         }
-        return temp == 4;
-    }
-
-    /** Capture the square above TO. */
-    void captureUp(Square to) {
-        if (SIZE - to.row() > 2) {
-            if (isOpponent(get(to), _board[to.col()][to.row() + 1])) {
-                if (isNormalCapture(sq(to.col(), to.row() + 1))) {
-                    if (isHostile(sq(to.col(), to.row() + 2))) {
-                        capture(to, sq(to.col(), to.row() + 2));
-                    }
-                } else {
-                    if (hostileAround(sq(to.col(), to.row() + 1))) {
-                        capture(to, sq(to.col(), to.row() + 2));
-                    }
-                }
-            }
+        if (contains(near, from)) {
+            attackers -= 1;
         }
+        return attackers == 3;
     }
 
-    /** Capture the square below TO. */
-    void captureDown(Square to) {
-        if (SIZE - to.row() <= 7) {
-            if (isOpponent(get(to), _board[to.col()][to.row() - 1])) {
-                if (isNormalCapture(sq(to.col(), to.row() - 1))) {
-                    if (isHostile(sq(to.col(), to.row() - 2))) {
-                        capture(to, sq(to.col(), to.row() - 2));
-                    }
-                } else {
-                    if (hostileAround(sq(to.col(), to.row() - 1))) {
-                        capture(to, sq(to.col(), to.row() - 2));
-                    }
-                }
+    /** Return true iff BLACK would hold every square of
+     *  KING_ATTACKERS[KING] after moving from the square with index FROM to
+     *  that with index TO, capturing a king on the throne or next to it on
+     *  the square with index KING. */
+    private boolean surroundsKing(int king, int from, int to) {
+        long[] attackers = KING_ATTACKERS[king];
+        for (int w = 0; w < attackers.length; w += 1) {
+            long black = _black[w];
+            if (to >>> 6 == w) {
+                black |= 1L << to;
             }
-        }
-    }
-
-    /** Capture the square to the right of TO. */
-    void captureRight(Square to) {
-        if (SIZE - to.col() > 2) {
-            if (isOpponent(get(to), _board[to.col() + 1][to.row()])) {
-                if (isNormalCapture(sq(to.col() + 1, to.row()))) {
-                    if (isHostile(sq(to.col() + 2, to.row()))) {
-                        capture(to, sq(to.col() + 2, to.row()));
-                    }
-                } else {
-                    if (hostileAround(sq(to.col() + 1, to.row()))) {
-                        capture(to, sq(to.col() + 2, to.row()));
-                    }
-                }
+            if (from >>> 6 == w) {
+                black &= ~(1L << from);
             }
-        }
-    }
-
-    /** Capture the square to the left of TO. */
-    void captureLeft(Square to) {
-        if (SIZE - to.col() <= 7) {
-            if (isOpponent(get(to), _board[to.col() - 1][to.row()])) {
-                if (isNormalCapture(sq(to.col() - 1, to.row()))) {
-                    if (isHostile(sq(to.col() - 2, to.row()))) {
-                        capture(to, sq(to.col() - 2, to.row()));
-                    }
-                } else {
-                    if (hostileAround(sq(to.col() - 1, to.row()))) {
-                        capture(to, sq(to.col() - 2, to.row()));
-                    }
-                }
+            if ((attackers[w] & black) != attackers[w]) {
+                return false;
             }
         }
+        return true;
     }
 
     /** Move according to MOVE, assuming it is a legal move. */
@@ -446,97 +515,255 @@ class Board {
         makeMove(move.from(), move.to());
     }
 
-    /** Capture the piece between SQ0 and SQ2, assuming a piece just moved to
-     *  SQ0 and the necessary conditions are satisfied. */
-    private void capture(Square sq0, Square sq2) {
-        assert (sq0 != sq2);
-        assert (sq0.isRookMove(sq2));
-        Square btwn = sq0.between(sq2);
-        _board[btwn.col()][btwn.row()] = EMPTY;
-    }
-
-    /** Undo one move.  Has no effect on the initial board. */
+    /** Undo one move.  Has no effect on the initial board, or on a
+     *  snapshot() on which no moves have been made. */
     void undo() {
-        if (_moveCount > 0 && !_repeated && !record.empty()) {
+        if (_moveCount > 0 && _undoSize > 0) {
             undoPosition();
         }
     }
 
-    /** Max index number. */
-    private static final int MAXINDEXNUM = 80;
+    /** Add a journal entry for a move, packed into UNDO, that was made from
+     *  the position with hash key KEY and placement value PLACEMENT. */
+    private void pushUndo(int undo, long key, int placement) {
+        if (_undoSize == _undoMoves.length) {
+            _undoMoves = Arrays.copyOf(_undoMoves, 2 * _undoSize);
+            _undoKeys = Arrays.copyOf(_undoKeys, 2 * _undoSize);
+            _undoPlacements = Arrays.copyOf(_undoPlacements, 2 * _undoSize);
+        }
+        _undoMoves[_undoSize] = undo;
+        _undoKeys[_undoSize] = key;
+        _undoPlacements[_undoSize] = placement;
+        _undoSize += 1;
+    }
 
-    /** Remove record of current position in the set of positions encountered,
-     *  unless it is a repeated position or we are at the first move. */
+    /** Remove one occurrence of the current position from the positions
+     *  encountered and restore the position before the last move.  Only
+     *  the squares the move changed are touched. */
     private void undoPosition() {
-        _repeated = record.contains(encodedBoard());
-        String boardString = record.pop();
-        if (boardString.charAt(0) == 'B') {
-            _turn = BLACK;
-        } else {
-            _turn = WHITE;
-        }
-        _winner = null;
-        for (int index = 0; index <= MAXINDEXNUM; index++) {
-            if (boardString.charAt(index + 1) == '-') {
-                _board[index % BOARD_SIZE][index / BOARD_SIZE] = EMPTY;
-            }
-            if (boardString.charAt(index + 1) == 'B') {
-                _board[index % BOARD_SIZE][index / BOARD_SIZE] = BLACK;
-            }
-            if (boardString.charAt(index + 1) == 'W') {
-                _board[index % BOARD_SIZE][index / BOARD_SIZE] = WHITE;
-            }
-            if (boardString.charAt(index + 1) == 'K') {
-                _board[index % BOARD_SIZE][index / BOARD_SIZE] = KING;
+        _positions.remove(_hash);
+        _frozenHistory = null;
+        _repeated = false;
+        _undoSize -= 1;
+        int undo = _undoMoves[_undoSize];
+        int from = (undo >>> UNDO_FROM) & SQUARE_BITS,
+            to = (undo >>> UNDO_TO) & SQUARE_BITS,
+            king = (undo >>> UNDO_KING) & SQUARE_BITS,
+            captures = (undo >>> UNDO_CAPTURES) & DIRECTION_BITS;
+        Piece moved = PIECES[(undo >>> UNDO_PIECE) & PIECE_BITS];
+        long[] mine = moved == BLACK ? _black : _white,
+            theirs = moved == BLACK ? _white : _black;
+        remove(mine, to);
+        add(mine, from);
+        for (int d = 0; captures != 0; d += 1, captures >>>= 1) {
+            if ((captures & 1) != 0) {
+                add(theirs, ROOK_SQUARES[to][d].get(0).index());
             }
         }
+        _king = king == NO_KING ? null : sq(king);
+        _winner = PIECES[(undo >>> UNDO_WINNER) & PIECE_BITS];
+        if (_winner == EMPTY) {
+            _winner = null;
+        }
+        _turn = moved.side();
+        _hash = _undoKeys[_undoSize];
+        _placement = _undoPlacements[_undoSize];
         _moveCount--;
-
     }
 
     /** Clear the undo stack and board-position counts. Does not modify the
      *  current position or win status. */
     void clearUndo() {
-        record.clear();
+        _undoSize = 0;
+        _history = _frozenHistory = null;
+        _positions.clear();
+        _positions.add(_hash);
     }
 
+    /** Bit positions of the fields of an undo journal entry: the indices of
+     *  the squares moved from and to, the ordinal of the piece moved, the
+     *  set of directions from the destination in which pieces were captured
+     *  (bit d for direction d), the ordinal of the previous winner (EMPTY
+     *  for none), and the index of the king's square before the move
+     *  (NO_KING if there was none). */
+    private static final int
+        UNDO_FROM = 0, UNDO_TO = 7, UNDO_PIECE = 14, UNDO_CAPTURES = 16,
+        UNDO_WINNER = 20, UNDO_KING = 22;
+
+    /** Masks for the fields of an undo journal entry. */
+    private static final int
+        SQUARE_BITS = 0x7f, PIECE_BITS = 0x3, DIRECTION_BITS = 0xf;
+
+    /** Value of the king field of an undo journal entry with no king. */
+    private static final int NO_KING = SQUARE_BITS;
+
+    /** Initial capacity of the undo journal. */
+    private static final int INITIAL_UNDO_SIZE = 64;
+
+    /** All Pieces, by ordinal. */
+    private static final Piece[] PIECES = Piece.values();
 
     /** Return a new mutable list of all legal moves on the current board for
      *  SIDE (ignoring whose turn it is at the moment). */
     List<Move> legalMoves(Piece side) {
-        List<Move> blackMoves = new ArrayList<>();
-        List<Move> whiteMoves = new ArrayList<>();
-        for (Square s : SQUARE_LIST) {
-            if (get(s) == BLACK) {
-                for (Square sq : SQUARE_LIST) {
-                    if (isLegal(s, sq) && mv(s, sq) != null
-                            && !record.contains(mv(s, sq))) {
-                        blackMoves.add(mv(s, sq));
+        MoveList moves = new MoveList();
+        legalMoves(side, moves);
+        return moves;
+    }
+
+    /** Set MOVES to all legal moves on the current board for SIDE (ignoring
+     *  whose turn it is at the moment).  Each piece's moves are found by
+     *  walking ROOK_MOVES outward until the first occupied square, so
+     *  nothing is allocated once MOVES has grown large enough. */
+    void legalMoves(Piece side, MoveList moves) {
+        moves.clear();
+        long[] mine = side == BLACK ? _black : _white;
+        int kingIndex = _king == null ? -1 : _king.index();
+        for (int w = 0; w < mine.length; w += 1) {
+            for (long bits = mine[w]; bits != 0; bits &= bits - 1) {
+                int from = w * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                for (MoveList ray : ROOK_MOVES[from]) {
+                    for (int k = 0; k < ray.size(); k += 1) {
+                        Move mv = ray.get(k);
+                        int to = mv.to().index();
+                        if (contains(_black, to) || contains(_white, to)) {
+                            break;
+                        }
+                        if (to != THRONE.index() || from == kingIndex) {
+                            moves.add(mv);
+                        }
                     }
                 }
-            } else if (get(s) == WHITE || get(s) == KING) {
-                for (Square sq : SQUARE_LIST) {
-                    if (isLegal(s, sq) && mv(s, sq) != null
-                            && !record.contains(mv(s, sq))) {
-                        whiteMoves.add(mv(s, sq));
+            }
+        }
+    }
+
+    /** Return true iff SIDE has a legal move.  Stops at the first one
+     *  found, which is almost always on the first ray examined. */
+    boolean hasMove(Piece side) {
+        long[] mine = side == BLACK ? _black : _white;
+        for (int w = 0; w < mine.length; w += 1) {
+            for (long bits = mine[w]; bits != 0; bits &= bits - 1) {
+                int from = w * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                for (SqList ray : ROOK_SQUARES[from]) {
+                    for (int k = 0; k < ray.size(); k += 1) {
+                        Square to = ray.get(k);
+                        if (contains(_black, to.index())
+                            || contains(_white, to.index())) {
+                            break;
+                        }
+                        if (to != THRONE || sq(from) == _king) {
+                            return true;
+                        }
                     }
                 }
             }
         }
-        if (side == BLACK) {
-            return blackMoves;
-        } else if (side == WHITE) {
-            return whiteMoves;
+        return false;
+    }
+
+    /** Set MOVES to all legal moves for SIDE that would capture at least
+     *  one piece.  Only the empty squares next to SIDE's opponents can be
+     *  the destinations of such moves, and the only pieces that can reach
+     *  one are the nearest along each of its rays. */
+    void captureMoves(Piece side, MoveList moves) {
+        moves.clear();
+        long[] theirs = side == BLACK ? _white : _black;
+        long targets0 = 0, targets1 = 0;
+        for (int w = 0; w < theirs.length; w += 1) {
+            for (long bits = theirs[w]; bits != 0; bits &= bits - 1) {
+                int v = w * Long.SIZE + Long.numberOfTrailingZeros(bits);
+                for (SqList ray : ROOK_SQUARES[v]) {
+                    if (!ray.isEmpty()) {
+                        int t = ray.get(0).index();
+                        if (t < Long.SIZE) {
+                            targets0 |= 1L << t;
+                        } else {
+                            targets1 |= 1L << t;
+                        }
+                    }
+                }
+            }
+        }
+        targets0 &= ~(_black[0] | _white[0]);
+        targets1 &= ~(_black[1] | _white[1]);
+        for (int w = 0; w < 2; w += 1) {
+            for (long bits = w == 0 ? targets0 : targets1; bits != 0;
+                 bits &= bits - 1) {
+                Square to =
+                    sq(w * Long.SIZE + Long.numberOfTrailingZeros(bits));
+                for (int d = 0; d < 4; d += 1) {
+                    int from = nearestPiece(to.index(), d);
+                    if (from >= 0 && get(from).side() == side
+                        && (to != THRONE || sq(from) == _king)
+                        && captureDirections(sq(from), to) != 0) {
+                        moves.add(Move.mv(sq(from), to));
+                    }
+                }
+            }
         }
-        return null;
     }
 
-    /** Return true iff SIDE has a legal move. */
-    boolean hasMove(Piece side) {
-        if (legalMoves(side).isEmpty()) {
-            return false;
+    /** Set MOVES to all legal king moves that reach an edge square or a
+     *  square from which the king would have an unblocked path to one
+     *  (see isKingEscape). */
+    void kingEscapeMoves(MoveList moves) {
+        moves.clear();
+        if (_king == null) {
+            return;
+        }
+        for (MoveList ray : ROOK_MOVES[_king.index()]) {
+            for (int k = 0; k < ray.size(); k += 1) {
+                Move mv = ray.get(k);
+                if (get(mv.to()) != EMPTY) {
+                    break;
+                }
+                if (isKingEscape(mv)) {
+                    moves.add(mv);
+                }
+            }
+        }
+    }
+
+    /** Set MOVES to all legal BLACK moves onto the king's unblocked paths
+     *  to the edge, each of which would close one of them. */
+    void escapeBlockingMoves(MoveList moves) {
+        moves.clear();
+        if (_king == null) {
+            return;
+        }
+        for (int e = 0; e < 4; e += 1) {
+            if (nearestPiece(_king.index(), e) >= 0) {
+                continue;
+            }
+            for (Square to : ROOK_SQUARES[_king.index()][e]) {
+                for (int d = 0; d < 4 && to != THRONE; d += 1) {
+                    int from = nearestPiece(to.index(), d);
+                    if (from >= 0 && contains(_black, from)) {
+                        moves.add(Move.mv(sq(from), to));
+                    }
+                }
+            }
+        }
+    }
+
+    /** Return the index of the occupied square nearest the square with
+     *  index I in direction D, or -1 if there is none.  Directions 0 and 1
+     *  run toward higher indices, and 2 and 3 toward lower ones. */
+    private int nearestPiece(int i, int d) {
+        long[] ray = RAYS[i][d];
+        long bits0 = ray[0] & (_black[0] | _white[0]),
+            bits1 = ray[1] & (_black[1] | _white[1]);
+        if (d < 2) {
+            return bits0 != 0 ? Long.numberOfTrailingZeros(bits0)
+                : bits1 != 0 ? Long.SIZE + Long.numberOfTrailingZeros(bits1)
+                : -1;
+        } else {
+            return bits1 != 0
+                ? 2 * Long.SIZE - 1 - Long.numberOfLeadingZeros(bits1)
+                : bits0 != 0 ? Long.SIZE - 1 - Long.numberOfLeadingZeros(bits0)
+                : -1;
         }
-        return true;
     }
 
     @Override
@@ -572,25 +799,50 @@ class Board {
 
     /** Return the locations of all pieces on SIDE. */
     public HashSet<Square> pieceLocations(Piece side) {
-        HashSet<Square> wtemp = new HashSet<>();
-        HashSet<Square> btemp = new HashSet<>();
+        HashSet<Square> result = new HashSet<>();
+        long[] pieces = side == BLACK ? _black : _white;
         if (side != EMPTY) {
-            for (Square s : SQUARE_LIST) {
-                if (get(s) == WHITE || get(s) == KING) {
-                    wtemp.add(s);
-                } else if (get(s) == BLACK) {
-                    btemp.add(s);
+            for (int w = 0; w < pieces.length; w += 1) {
+                for (long bits = pieces[w]; bits != 0; bits &= bits - 1) {
+                    result.add(sq(w * Long.SIZE
+                                  + Long.numberOfTrailingZeros(bits)));
                 }
             }
         }
-        if (side == WHITE) {
-            return wtemp;
-        } else {
-            return btemp;
+        return result;
+    }
+
+    /** Return the number of pieces on SIDE (WHITE, including the king, or
+     *  BLACK). */
+    int pieceCount(Piece side) {
+        return size(side == BLACK ? _black : _white);
+    }
+
+    /** Return a heuristic value of the current position from WHITE's
+     *  point of view, ignoring whether the game is over.  It adds the
+     *  material of each side, the PLACEMENT values of all pieces (which
+     *  include the king's distance from the edge), the king's unblocked
+     *  paths to the edge, and the attackers next to the king.  Only the
+     *  last two are computed here; the rest are kept up to date by put. */
+    int evaluation() {
+        int score = WHITE_VALUE * size(_white) - BLACK_VALUE * size(_black)
+            + _placement;
+        if (_king != null) {
+            int k = _king.index();
+            for (long[] ray : RAYS[k]) {
+                if (((ray[0] & (_black[0] | _white[0]))
+                     | (ray[1] & (_black[1] | _white[1]))) == 0) {
+                    score += OPEN_PATH_VALUE;
+                }
+            }
+            score -= ADJACENT_ATTACKER_VALUE
+                * (Long.bitCount(NEIGHBORS[k][0] & _black[0])
+                   + Long.bitCount(NEIGHBORS[k][1] & _black[1]));
         }
+        return score;
     }
 
-    /** Return the contents of _board in the order of SQUARE_LIST as a sequence
+    /** Return the contents of the board in the order of SQUARE_LIST as a sequence
      *  of characters: the toString values of the current turn and Pieces. */
     String encodedBoard() {
         char[] result = new char[Square.SQUARE_LIST.size() + 1];
@@ -601,6 +853,161 @@ class Board {
         return new String(result);
     }
 
+    /** Return true iff the square with index I is in SET. */
+    private static boolean contains(long[] set, int i) {
+        return (set[i >>> 6] & (1L << i)) != 0;
+    }
+
+    /** Add the square with index I to SET. */
+    private static void add(long[] set, int i) {
+        set[i >>> 6] |= 1L << i;
+    }
+
+    /** Remove the square with index I from SET. */
+    private static void remove(long[] set, int i) {
+        set[i >>> 6] &= ~(1L << i);
+    }
+
+    /** Remove all squares from SET. */
+    private static void clear(long[] set) {
+        set[0] = set[1] = 0;
+    }
+
+    /** Return the number of squares in SET. */
+    private static int size(long[] set) {
+        return Long.bitCount(set[0]) + Long.bitCount(set[1]);
+    }
+
+    /** RAYS[i][d] is the set of squares in ROOK_SQUARES[i][d], in the
+     *  format of _black. */
+    private static final long[][][] RAYS = new long[NUM_SQUARES][4][2];
+
+    /** NEIGHBORS[i] is the set of squares orthogonally adjacent to the
+     *  square with index i, in the format of _black. */
+    private static final long[][] NEIGHBORS = new long[NUM_SQUARES][2];
+
+    static {
+        for (Square sq0 : SQUARE_LIST) {
+            for (int d = 0; d < 4; d += 1) {
+                for (Square sq1 : ROOK_SQUARES[sq0.index()][d]) {
+                    add(RAYS[sq0.index()][d], sq1.index());
+                }
+                if (!ROOK_SQUARES[sq0.index()][d].isEmpty()) {
+                    add(NEIGHBORS[sq0.index()],
+                        ROOK_SQUARES[sq0.index()][d].get(0).index());
+                }
+            }
+        }
+    }
+
+    /** CAPTURE_PATTERNS[i] lists the ways a piece arriving on the square
+     *  with index i may capture: one entry per direction d in which there
+     *  are at least two squares, packing the index of the adjacent square
+     *  (the possible victim), the index of the square beyond it (the
+     *  anvil) at PATTERN_ANVIL, d at PATTERN_DIRECTION, and the flags
+     *  ANVIL_IS_THRONE and VICTIM_NEAR_THRONE. */
+    private static final int[][] CAPTURE_PATTERNS = new int[NUM_SQUARES][];
+
+    /** Bit positions of the anvil and direction of a capture pattern. */
+    private static final int PATTERN_ANVIL = 7, PATTERN_DIRECTION = 16;
+
+    /** Capture pattern flags: the anvil is the throne, and the victim is
+     *  the throne or next to it (where a king needs four attackers). */
+    private static final int
+        ANVIL_IS_THRONE = 1 << 14, VICTIM_NEAR_THRONE = 1 << 15;
+
+    static {
+        for (Square sq0 : SQUARE_LIST) {
+            int[] patterns = new int[4];
+            int n = 0;
+            for (int d = 0; d < 4; d += 1) {
+                SqList ray = ROOK_SQUARES[sq0.index()][d];
+                if (ray.size() >= 2) {
+                    Square victim = ray.get(0), anvil = ray.get(1);
+                    patterns[n] = victim.index()
+                        | (anvil.index() << PATTERN_ANVIL)
+                        | (d << PATTERN_DIRECTION);
+                    if (anvil == THRONE) {
+                        patterns[n] |= ANVIL_IS_THRONE;
+                    }
+                    if (victim == THRONE || victim.adjacent(THRONE)) {
+                        patterns[n] |= VICTIM_NEAR_THRONE;
+                    }
+                    n += 1;
+                }
+            }
+            CAPTURE_PATTERNS[sq0.index()] = Arrays.copyOf(patterns, n);
+        }
+    }
+
+    /** KING_ATTACKERS[i] is the set of squares, in the format of _black,
+     *  that BLACK must hold to capture a king on the square with index i
+     *  when that is the throne or next to it: all of its neighbors except
+     *  the throne, which is empty and so hostile already. */
+    private static final long[][] KING_ATTACKERS = new long[NUM_SQUARES][];
+
+    static {
+        for (Square sq0 : SQUARE_LIST) {
+            KING_ATTACKERS[sq0.index()] = NEIGHBORS[sq0.index()].clone();
+            remove(KING_ATTACKERS[sq0.index()], THRONE.index());
+        }
+    }
+
+    /** Material values of each WHITE piece (including the king) and each
+     *  BLACK piece in evaluation. */
+    private static final int WHITE_VALUE = 160, BLACK_VALUE = 100;
+
+    /** Value in evaluation of each unblocked path from the king to the
+     *  edge, and (to BLACK) of each attacker next to the king. */
+    private static final int
+        OPEN_PATH_VALUE = 120, ADJACENT_ATTACKER_VALUE = 40;
+
+    /** PLACEMENT_BY_DISTANCE[p][k] is the value to WHITE of Piece p (by
+     *  ordinal) standing k squares from the nearest edge.  BLACK does best
+     *  on the ring just inside the edge, where it can block escapes;
+     *  WHITE soldiers do best clear of the edge; the king does best near
+     *  it. */
+    private static final int[][] PLACEMENT_BY_DISTANCE = {
+        { 0, 0, 0, 0, 0 },
+        { 0, 6, 8, 6, 0 },
+        { 0, -8, -4, 0, 0 },
+        { 0, -25, -50, -75, -100 },
+    };
+
+    /** PLACEMENT[p][i] is the value to WHITE of Piece p (by ordinal) on
+     *  the square with index i. */
+    private static final int[][] PLACEMENT =
+        new int[PLACEMENT_BY_DISTANCE.length][NUM_SQUARES];
+
+    static {
+        for (Square sq0 : SQUARE_LIST) {
+            int dist = Math.min(Math.min(sq0.col(), sq0.row()),
+                                Math.min(SIZE - 1 - sq0.col(),
+                                         SIZE - 1 - sq0.row()));
+            for (int p = 0; p < PLACEMENT.length; p += 1) {
+                PLACEMENT[p][sq0.index()] = PLACEMENT_BY_DISTANCE[p][dist];
+            }
+        }
+    }
+
+    /** ZOBRIST[p][i] is a random key for Piece p (by ordinal) on the square
+     *  with index i.  The EMPTY entries are 0. */
+    private static final long[][] ZOBRIST =
+        new long[Piece.values().length][NUM_SQUARES];
+
+    /** Random key included in hashKey() when WHITE is to move. */
+    private static final long WHITE_TO_MOVE;
+
+    static {
+        Random keys = new Random(0x7ab1e5eedL);
+        for (Piece p : Piece.values()) {
+            for (int i = 0; p != EMPTY && i < NUM_SQUARES; i += 1) {
+                ZOBRIST[p.ordinal()][i] = keys.nextLong();
+            }
+        }
+        WHITE_TO_MOVE = keys.nextLong();
+    }
+
     /** Piece whose turn it is (WHITE or BLACK). */
     private Piece _turn;
     /** Cached value of winner on this board, or EMPTY if it has not been
@@ -612,6 +1019,10 @@ class Board {
     private boolean _repeated;
     /** The limit of moves that board can make. */
     private int _moveLimit;
+    /** Zobrist key of the current position (see hashKey()). */
+    private long _hash;
+    /** Sum of the PLACEMENT values of all pieces on the board. */
+    private int _placement;
 
 
 }
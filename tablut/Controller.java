@@ -1,6 +1,7 @@
 package tablut;
 
 import java.io.PrintStream;
+import java.io.Reader;
 import java.util.Random;
 import java.util.Scanner;
 import java.util.regex.Pattern;
@@ -15,22 +16,26 @@ import static tablut.Piece.*;
  *  @author Thomas Nguyen*/
 final class Controller {
 
-    /** Controller for one or more games of Tablut, using
-     *  MANUALPLAYERTEMPLATE as an exemplar for manual players
-     *  (see the Player.create method) and AUTOPLAYERTEMPLATE
-     *  as an exemplar for automated players.  Reports
+    /** Controller for one or more games of Tablut, reading commands
+     *  from INPUT and writing prompts and the output of commands such as
+     *  dump to OUTPUT.  Uses MANUALPLAYERTEMPLATE as an exemplar for
+     *  manual players (see the Player.create method) and
+     *  AUTOPLAYERTEMPLATE as an exemplar for automated players.  Reports
      *  board changes to VIEW at appropriate points.  Uses REPORTER
      *  to report moves, wins, and errors to user. If LOGFILE is
-     *  non-null, copies all commands to it. If STRICT, exits the
-     *  program with non-zero code on receiving an erroneous move from a
-     *  player. */
-    Controller(View view, PrintStream logFile, Reporter reporter,
+     *  non-null, copies all commands to it. If STRICT, stops playing
+     *  on receiving an erroneous move from a player, and failed() then
+     *  returns true.  Uses no other input or output, so that any number
+     *  of Controllers may play at once in one program. */
+    Controller(Reader input, PrintStream output, View view,
+               PrintStream logFile, Reporter reporter,
                Player manualPlayerTemplate, Player autoPlayerTemplate,
                boolean strict) {
         _view = view;
         _playing = false;
         _logFile = logFile;
-        _input = new Scanner(System.in);
+        _input = new Scanner(input);
+        _output = output;
         _autoPlayerTemplate = autoPlayerTemplate;
         _manualPlayerTemplate = manualPlayerTemplate;
         _nonPlayer = manualPlayerTemplate.create(EMPTY, this);
@@ -43,9 +48,10 @@ final class Controller {
     /** Play Tablut. */
     void play() {
         _playing = true;
+        _failed = false;
         _winner = null;
         _board.init();
-        while (_playing) {
+        while (_playing && !_stopped) {
             _view.update(this);
             String command;
             if (_winner == null) {
@@ -65,15 +71,30 @@ final class Controller {
             } catch (IllegalArgumentException excp) {
                 reportError("Error: %s%n", excp.getMessage());
                 if (_strict) {
-                    System.exit(1);
+                    _failed = true;
+                    _playing = false;
                 }
             }
         }
+        stopPondering();
         if (_logFile != null) {
             _logFile.close();
         }
     }
 
+    /** Cause play to return once the command or move in progress is
+     *  done, as when no one is left to watch the game.  May be called
+     *  from any thread. */
+    void stop() {
+        _stopped = true;
+    }
+
+    /** Return true iff the last game played stopped because of an
+     *  erroneous command in strict mode. */
+    boolean failed() {
+        return _failed;
+    }
+
     /** Return the current board.  The value returned should not be
      *  modified. */
     Board board() {
@@ -95,13 +116,21 @@ final class Controller {
         _randGen.setSeed(seed);
     }
 
+    /** Make the perft and divide commands refuse depths greater than
+     *  MAXDEPTH (initially Perft.MAX_DEPTH), which must be between 0 and
+     *  Perft.MAX_DEPTH. */
+    void limitPerft(int maxDepth) {
+        assert 0 <= maxDepth && maxDepth <= Perft.MAX_DEPTH;
+        _maxPerftDepth = maxDepth;
+    }
+
     /** Return the next line of input, or null if there is no more. First
      *  prompts for the line.  Trims the returned line (if any) of all
      *  leading and trailing whitespace. First issues a prompt iff PROMPT. */
     String readLine(boolean prompt) {
         if (prompt) {
-            System.out.print("> ");
-            System.out.flush();
+            _output.print("> ");
+            _output.flush();
         }
         if (_input.hasNextLine()) {
             return _input.nextLine().trim();
@@ -173,12 +202,14 @@ final class Controller {
         new Command("manual\\s+(white|black)$", this::doManual),
         new Command("auto\\s+(white|black)$", this::doAuto),
         new Command("limit\\s+(\\d+)$", this::doLimit),
+        new Command("perft\\s+(\\d+)$", this::doPerft),
+        new Command("divide\\s+(\\d+)$", this::doDivide),
         new Command("toggle\\s+" + SQ + "$", this::doToggle),
         new Command(Move.MOVE_PATTERN.pattern(), this::doMove)
     };
 
-    /** A Matcher whose Pattern matches comments. */
-    private static final Matcher COMMENT = Pattern.compile("#.*").matcher("");
+    /** A Pattern that matches comments. */
+    private static final Pattern COMMENT = Pattern.compile("#.*");
 
     /** Check that CMND is one of the valid Tablut commands and execute it, if
      *  so, raising an IllegalArgumentException otherwise. */
@@ -188,8 +219,7 @@ final class Controller {
             _logFile.flush();
         }
 
-        COMMENT.reset(cmnd);
-        cmnd = COMMENT.replaceFirst("").trim().toLowerCase();
+        cmnd = COMMENT.matcher(cmnd).replaceFirst("").trim().toLowerCase();
 
         if (cmnd.isEmpty()) {
             return;
@@ -206,6 +236,7 @@ final class Controller {
 
     /** Command "new". */
     private void doNew(Matcher unused) {
+        stopPondering();
         _board.init();
         _winner = null;
     }
@@ -214,9 +245,11 @@ final class Controller {
     private void doManual(Matcher color) {
         switch (color.group(1)) {
         case "black":
+            _black.stopPondering();
             _black = _manualPlayerTemplate.create(BLACK, this);
             break;
         case "white":
+            _white.stopPondering();
             _white = _manualPlayerTemplate.create(WHITE, this);
             break;
         default:
@@ -229,9 +262,11 @@ final class Controller {
     private void doAuto(Matcher color) {
         switch (color.group(1)) {
         case "black":
+            _black.stopPondering();
             _black = _autoPlayerTemplate.create(BLACK, this);
             break;
         case "white":
+            _white.stopPondering();
             _white = _autoPlayerTemplate.create(WHITE, this);
             break;
         default:
@@ -253,6 +288,7 @@ final class Controller {
         default:
             piece = EMPTY; break;
         }
+        stopPondering();
         _board.put(piece, sq);
         _board.clearUndo();
     }
@@ -280,27 +316,61 @@ final class Controller {
         }
     }
 
+    /** Command "perft N" where N is the first captured group of MAT. */
+    private void doPerft(Matcher mat) {
+        Perft.report(_board, depth(mat.group(1)), false, _output);
+    }
+
+    /** Command "divide N" where N is the first captured group of MAT. */
+    private void doDivide(Matcher mat) {
+        Perft.report(_board, depth(mat.group(1)), true, _output);
+    }
+
+    /** Return the perft depth denoted by NUMERAL, which must be at most
+     *  the limit set by limitPerft. */
+    private int depth(String numeral) {
+        int depth;
+        try {
+            depth = Integer.parseInt(numeral);
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+        if (depth < 0 || depth > _maxPerftDepth) {
+            throw error("depth must be between 0 and %d", _maxPerftDepth);
+        }
+        return depth;
+    }
+
     /** Execute a move command matched in MAT. */
     private void doMove(Matcher mat) {
         _board.makeMove(Move.mv(mat.group(0)));
         if (_winner == null) {
             _winner = _board.winner();
             if (_winner != null) {
+                stopPondering();
                 _view.update(this);
                 _reporter.reportNote("%s wins.", _winner.toName());
             }
         }
     }
 
-    /** Dump the contents of the board on standard output. */
+    /** Stop both players thinking about the current position in the
+     *  background, as when it is replaced or the game ends. */
+    private void stopPondering() {
+        _white.stopPondering();
+        _black.stopPondering();
+    }
+
+    /** Dump the contents of the board on my output. */
     private void doDump(Matcher unused) {
-        System.out.printf("===%n%s===%n", _board);
+        _output.printf("===%n%s===%n", _board);
     }
 
     /** Undo back to before my last move, if there was one (otherwise does
      *  nothing). */
     private void doUndo(Matcher unused) {
         if (_board.moveCount() > 1) {
+            stopPondering();
             _board.undo();
             _board.undo();
             _winner = null;
@@ -317,6 +387,15 @@ final class Controller {
     /** True while game is still active. */
     private boolean _playing;
 
+    /** True once stop has been called. */
+    private volatile boolean _stopped;
+
+    /** The greatest depth accepted by the perft and divide commands. */
+    private int _maxPerftDepth = Perft.MAX_DEPTH;
+
+    /** True iff play stopped because of an error in strict mode. */
+    private boolean _failed;
+
     /** The object that is displaying the current game. */
     private View _view;
 
@@ -329,6 +408,9 @@ final class Controller {
     /** Input source. */
     private Scanner _input;
 
+    /** Destination of prompts and of the output of commands. */
+    private PrintStream _output;
+
     /** The current White and Black players, each created from
      *  _autoPlayerTemplate or _manualPlayerTemplate. */
     private Player _white, _black;
@@ -0,0 +1,61 @@
+package tablut;
+
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/** Plays any number of GameSessions at once in one program, so that they
+ *  share its startup and compiled code.  Each session runs on its own
+ *  thread, which spends most of its time waiting for input.  The
+ *  automated players of all sessions search in one pool of a fixed number
+ *  of threads, so that the load on the processors stays bounded however
+ *  many games are in progress.
+ *  @author Thomas Nguyen
+ */
+final class GameHost {
+
+    /** A host whose automated players search in SEARCHTHREADS threads in
+     *  all, taking about TIMELIMIT milliseconds per move once their search
+     *  starts.  THREADS, LAZYSMP, and PVS are as for the AI constructor. */
+    GameHost(int searchThreads, long timeLimit, int threads,
+             boolean lazySMP, boolean pvs) {
+        _searchPool = new ForkJoinPool(searchThreads);
+        _autoPlayerTemplate = new AI(timeLimit, threads, lazySMP, pvs,
+                                     _searchPool, TABLE_LOG_SIZE);
+        _sessions = Executors.newCachedThreadPool();
+    }
+
+    /** Start a GameSession that reads from INPUT and writes to OUTPUT, and
+     *  return it. */
+    GameSession start(Reader input, PrintStream output) {
+        GameSession session =
+            new GameSession(input, output, _autoPlayerTemplate);
+        _sessions.execute(session);
+        return session;
+    }
+
+    /** Start no more sessions, wait for those in progress to end, and
+     *  then release my threads. */
+    void shutdown() throws InterruptedException {
+        _sessions.shutdown();
+        _sessions.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        _searchPool.shutdown();
+    }
+
+    /** Base-2 logarithm of the size of each automated player's table:
+     *  smaller than a lone AI's, so that hundreds of games fit in
+     *  memory. */
+    private static final int TABLE_LOG_SIZE = 16;
+
+    /** The threads that run sessions. */
+    private final ExecutorService _sessions;
+
+    /** The threads in which all automated players search. */
+    private final ForkJoinPool _searchPool;
+
+    /** The exemplar for the automated players of all my sessions. */
+    private final AI _autoPlayerTemplate;
+}
@@ -0,0 +1,369 @@
+package tablut;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/** A server for games of Tablut over TCP.  Each connection carries one
+ *  GameSession: the client sends the commands that Main reads from the
+ *  standard input, one per line, and receives what Main writes on the
+ *  standard output, including the "* MOVE" line for each automated
+ *  player's move and lines such as "* White wins." at the ends of games.
+ *  The session ends, and the server closes the connection, when the
+ *  client sends "quit" or closes its side, even if automated players
+ *  are still playing: nothing after the move in progress is played or
+ *  sent.  A failure on one connection ends only its session, and a
+ *  failure to accept a connection is ignored.  One thread (the one that
+ *  calls serve) handles the traffic on all connections, using a Selector,
+ *  while the sessions themselves run in a GameHost.
+ *  @author Thomas Nguyen
+ */
+final class GameServer {
+
+    /** A server that accepts connections at ADDRESS and plays their
+     *  sessions in HOST. */
+    GameServer(GameHost host, InetSocketAddress address) throws IOException {
+        _host = host;
+        _selector = Selector.open();
+        _listener = ServerSocketChannel.open();
+        _listener.bind(address);
+        _listener.configureBlocking(false);
+        _listener.register(_selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /** Return the port on which I accept connections. */
+    int port() {
+        return _listener.socket().getLocalPort();
+    }
+
+    /** Accept and serve connections until close() is called, then close
+     *  all connections, which ends their sessions. */
+    void serve() throws IOException {
+        try {
+            while (!_closed) {
+                _selector.select();
+                for (Connection conn = _changed.poll(); conn != null;
+                     conn = _changed.poll()) {
+                    conn.updateInterest();
+                }
+                for (SelectionKey key : _selector.selectedKeys()) {
+                    try {
+                        handle(key);
+                    } catch (CancelledKeyException excp) {
+                        /* A session closed its connection meanwhile. */
+                        if (key.attachment() != null) {
+                            ((Connection) key.attachment()).close();
+                        }
+                    } catch (IOException excp) {
+                        /* Accepting failed, as when out of file
+                         * descriptors: drop the pending connection. */
+                    }
+                }
+                _selector.selectedKeys().clear();
+            }
+        } finally {
+            for (SelectionKey key : _selector.keys()) {
+                if (key.attachment() != null) {
+                    ((Connection) key.attachment()).close();
+                }
+            }
+            _listener.close();
+            _selector.close();
+        }
+    }
+
+    /** Cause serve to return.  May be called from any thread. */
+    void close() {
+        _closed = true;
+        _selector.wakeup();
+    }
+
+    /** Do whatever KEY, one of the selected keys, is ready for. */
+    private void handle(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        } else if (key.isAcceptable()) {
+            accept();
+        } else {
+            Connection conn = (Connection) key.attachment();
+            if (key.isReadable()) {
+                conn.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+                conn.write();
+            }
+            conn.updateInterest();
+        }
+    }
+
+    /** Accept a pending connection, if there is one, and start its
+     *  session. */
+    private void accept() throws IOException {
+        SocketChannel channel = _listener.accept();
+        if (channel == null) {
+            return;
+        }
+        Connection conn = new Connection(channel);
+        try {
+            channel.configureBlocking(false);
+            conn._key =
+                channel.register(_selector, SelectionKey.OP_READ, conn);
+        } catch (IOException excp) {
+            channel.close();
+            throw excp;
+        }
+        PrintStream output = new PrintStream(conn._output, true, UTF_8);
+        GameSession session = _host.start(conn._input, output);
+        session.finished().whenComplete((unused, excp) -> output.close());
+        conn.setSession(session);
+    }
+
+    /** One client's connection.  Its session reads from _input and writes
+     *  to _output on its own thread, while the server thread moves data
+     *  between the buffers behind them and the channel.  Both threads
+     *  lock the Connection to use the buffers. */
+    private final class Connection {
+
+        /** A connection over CHANNEL. */
+        Connection(SocketChannel channel) {
+            _channel = channel;
+        }
+
+        /** Read whatever the client has sent and make it available to
+         *  _input.  Called by the server thread when the channel is
+         *  readable. */
+        void read() {
+            int n;
+            try {
+                n = _channel.read(_received);
+            } catch (IOException excp) {
+                close();
+                return;
+            }
+            _received.flip();
+            _decoder.decode(_received, _decoded, n < 0);
+            _received.compact();
+            _decoded.flip();
+            synchronized (this) {
+                _chars.append(_decoded);
+                notifyAll();
+                if (n < 0) {
+                    end();
+                }
+            }
+            _decoded.clear();
+        }
+
+        /** Send as much pending output as the channel will take.  Called
+         *  by the server thread when the channel is writable. */
+        synchronized void write() {
+            _pending.flip();
+            try {
+                _channel.write(_pending);
+            } catch (IOException excp) {
+                _pending.clear();
+                close();
+                return;
+            }
+            _pending.compact();
+        }
+
+        /** Make my channel's interest set reflect what I am waiting for,
+         *  closing it once my session has ended and all its output has
+         *  been sent.  Called by the server thread. */
+        synchronized void updateInterest() {
+            if (!_key.isValid()) {
+                return;
+            }
+            if (_outputClosed && _pending.position() == 0) {
+                close();
+                return;
+            }
+            int ops = 0;
+            if (!_ended && _chars.length() < MAX_INPUT) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (_pending.position() > 0) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            _key.interestOps(ops);
+        }
+
+        /** Close my channel, discarding unsent output, and report the end
+         *  of input to my session. */
+        synchronized void close() {
+            try {
+                _channel.close();
+            } catch (IOException excp) {
+                /* Ignore IOException. */
+            }
+            end();
+        }
+
+        /** Make SESSION the session playing over me, stopping it at once
+         *  if my input has already ended. */
+        synchronized void setSession(GameSession session) {
+            _session = session;
+            if (_ended) {
+                session.stop();
+            }
+        }
+
+        /** Report the end of input to my session, and stop it: with no
+         *  one left to send it commands, it may play only automated
+         *  moves, which no one will see. */
+        private synchronized void end() {
+            _ended = true;
+            notifyAll();
+            if (_session != null) {
+                _session.stop();
+            }
+        }
+
+        /** Ask the server thread to call updateInterest. */
+        void changed() {
+            _changed.add(this);
+            _selector.wakeup();
+        }
+
+        /** The input to my session: the characters sent by the client. */
+        private final Reader _input = new Reader() {
+            @Override
+            public int read(char[] buf, int off, int len) throws IOException {
+                boolean resume;
+                int n;
+                synchronized (Connection.this) {
+                    while (_chars.length() == 0 && !_ended) {
+                        try {
+                            Connection.this.wait();
+                        } catch (InterruptedException excp) {
+                            throw new IOException("interrupted");
+                        }
+                    }
+                    if (_chars.length() == 0) {
+                        return -1;
+                    }
+                    resume = _chars.length() >= MAX_INPUT;
+                    n = Math.min(len, _chars.length());
+                    _chars.getChars(0, n, buf, off);
+                    _chars.delete(0, n);
+                }
+                if (resume) {
+                    changed();
+                }
+                return n;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        /** The output of my session, sent to the client. */
+        private final OutputStream _output = new OutputStream() {
+            @Override
+            public void write(int b) {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                synchronized (Connection.this) {
+                    if (!_channel.isOpen() || _outputClosed) {
+                        return;
+                    }
+                    if (_pending.position() + len > MAX_OUTPUT) {
+                        close();
+                        return;
+                    }
+                    if (_pending.remaining() < len) {
+                        int size = _pending.capacity();
+                        while (size - _pending.position() < len) {
+                            size *= 2;
+                        }
+                        ByteBuffer bigger = ByteBuffer.allocate(size);
+                        _pending.flip();
+                        _pending = bigger.put(_pending);
+                    }
+                    _pending.put(b, off, len);
+                }
+            }
+
+            @Override
+            public void flush() {
+                changed();
+            }
+
+            @Override
+            public void close() {
+                synchronized (Connection.this) {
+                    _outputClosed = true;
+                }
+                changed();
+            }
+        };
+
+        /** My channel. */
+        private final SocketChannel _channel;
+        /** My channel's registration with _selector. */
+        private SelectionKey _key;
+        /** Bytes received and not yet decoded.  Used only by the server
+         *  thread. */
+        private final ByteBuffer _received = ByteBuffer.allocate(BUFFER_SIZE);
+        /** Characters just decoded from _received.  Used only by the server
+         *  thread. */
+        private final CharBuffer _decoded = CharBuffer.allocate(BUFFER_SIZE);
+        /** Decodes _received, replacing malformed input, which otherwise
+         *  would never be consumed. */
+        private final CharsetDecoder _decoder = UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        /** Characters received and not yet read by my session. */
+        private final StringBuilder _chars = new StringBuilder();
+        /** True iff the client has sent all it will. */
+        private boolean _ended;
+        /** The session playing over me, or null if not yet started. */
+        private GameSession _session;
+        /** Output from my session not yet sent, in write mode. */
+        private ByteBuffer _pending = ByteBuffer.allocate(BUFFER_SIZE);
+        /** True iff my session has ended. */
+        private boolean _outputClosed;
+    }
+
+    /** Size of the buffers for each connection, in bytes or chars. */
+    private static final int BUFFER_SIZE = 4096;
+
+    /** I stop reading from a connection while this many characters from
+     *  it are waiting for its session. */
+    private static final int MAX_INPUT = 1 << 16;
+
+    /** I drop a connection whose client leaves more than this many bytes
+     *  of output unread. */
+    private static final int MAX_OUTPUT = 1 << 20;
+
+    /** The host of my sessions. */
+    private final GameHost _host;
+    /** Selects among my channels. */
+    private final Selector _selector;
+    /** The channel on which I accept connections. */
+    private final ServerSocketChannel _listener;
+    /** Connections whose interest sets may need updating. */
+    private final Queue<Connection> _changed = new ConcurrentLinkedQueue<>();
+    /** True once close() has been called. */
+    private volatile boolean _closed;
+}
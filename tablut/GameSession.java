@@ -0,0 +1,73 @@
+package tablut;
+
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.concurrent.CompletableFuture;
+
+/** One sequence of games of Tablut, played by text commands from its own
+ *  input and reported on its own output, in the same way as by Main
+ *  without a display.  A session shares nothing with other sessions
+ *  except its automated-player template, so that any number of them may
+ *  run at once on different threads (see GameHost).
+ *  @author Thomas Nguyen
+ */
+final class GameSession implements Runnable {
+
+    /** A session that reads commands and manual moves from INPUT, writes
+     *  prompts, moves, notes, errors, and the output of commands to
+     *  OUTPUT, and uses AUTOPLAYERTEMPLATE as the exemplar for automated
+     *  players. */
+    GameSession(Reader input, PrintStream output,
+                Player autoPlayerTemplate) {
+        _output = output;
+        _controller = new Controller(input, output, new NullView(), null,
+                                     new TextReporter(output, output),
+                                     new TextPlayer(), autoPlayerTemplate,
+                                     false);
+        _controller.limitPerft(MAX_PERFT_DEPTH);
+    }
+
+    /** Play until my input ends or contains a quit command, or until
+     *  stop is called. */
+    @Override
+    public void run() {
+        try {
+            _controller.play();
+        } catch (IllegalStateException excp) {
+            _output.printf("Internal error: %s%n", excp.getMessage());
+        } catch (RuntimeException | Error excp) {
+            _finished.completeExceptionally(excp);
+            throw excp;
+        } finally {
+            _output.flush();
+            _finished.complete(null);
+        }
+    }
+
+    /** Make run return once the command or move in progress is done,
+     *  even if only automated players are playing.  May be called from
+     *  any thread. */
+    void stop() {
+        _controller.stop();
+    }
+
+    /** Return a future that is completed when run returns. */
+    CompletableFuture<Void> finished() {
+        return _finished;
+    }
+
+    /** The greatest depth accepted by my perft and divide commands.  They
+     *  run on my own thread, outside the shared search pool, so deeper
+     *  counts would let any client occupy a processor for minutes. */
+    private static final int MAX_PERFT_DEPTH = 4;
+
+    /** The controller for my games. */
+    private final Controller _controller;
+
+    /** Where my output goes. */
+    private final PrintStream _output;
+
+    /** Completed when run returns. */
+    private final CompletableFuture<Void> _finished =
+        new CompletableFuture<>();
+}
@@ -4,7 +4,10 @@ import java.util.List;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 
 import static tablut.Utils.error;
 
@@ -15,18 +18,35 @@ import ucb.util.CommandArgs;
  */
 public class Main {
 
-    /** The main program.  ARGS may contain the option --display. */
+    /** The main program.  ARGS may contain the option --display,
+     *  --time=MILLIS to set how long the AI thinks about each move, and
+     *  --threads=N to set how many threads it searches with (adding
+     *  --smp to share them by Lazy SMP rather than by root move),
+     *  --pvs to search by principal variation search, and --ponder to
+     *  keep it searching during its opponent's turns.  With --serve=PORT,
+     *  it instead plays any number of games at once with clients that
+     *  connect to PORT on the loopback interface (see GameServer). */
     public static void main(String... args) {
 
         CommandArgs options =
-            new CommandArgs("--display --testing --strict --log={0,1} --={0,2}",
+            new CommandArgs("--display --testing --strict --log={0,1}"
+                            + " --time=(\\d+){0,1} --threads=(\\d+){0,1}"
+                            + " --smp --pvs --ponder --serve=(\\d+){0,1}"
+                            + " --={0,2}",
                             args);
         if (!options.ok()) {
             System.err.println("Usage: java tablut.Main [--display]"
-                               + " [--log=FILE] [--strict] [INPUT [OUTPUT]]");
+                               + " [--log=FILE] [--strict] [--time=MILLIS]"
+                               + " [--threads=N [--smp]] [--pvs] [--ponder]"
+                               + " [--serve=PORT | INPUT [OUTPUT]]");
             System.exit(1);
         }
 
+        if (options.contains("--serve")) {
+            serve(options);
+            return;
+        }
+
         List<String> files = options.get("--");
         if (!files.isEmpty()) {
             try {
@@ -53,6 +73,9 @@ public class Main {
 
         try {
             control.play();
+            if (control.failed()) {
+                System.exit(1);
+            }
             if (!options.contains("--display")) {
                 System.exit(0);
             }
@@ -63,6 +86,55 @@ public class Main {
 
     }
 
+    /** Serve games on the port given by OPTIONS until the program is
+     *  killed, with automated players as indicated by OPTIONS. */
+    private static void serve(CommandArgs options) {
+        try {
+            GameHost host =
+                new GameHost(Runtime.getRuntime().availableProcessors(),
+                             timeLimit(options), threads(options),
+                             options.contains("--smp"),
+                             options.contains("--pvs"));
+            GameServer server =
+                new GameServer(host, new InetSocketAddress(
+                                   InetAddress.getLoopbackAddress(),
+                                   Integer.parseInt(
+                                       options.getFirst("--serve"))));
+            System.out.printf("Tablut 61B, serving on port %d%n",
+                              server.port());
+            server.serve();
+        } catch (IOException | IllegalArgumentException excp) {
+            System.err.printf("Could not serve: %s%n", excp.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** Return the time limit for automated players given by OPTIONS. */
+    private static long timeLimit(CommandArgs options) {
+        try {
+            if (options.contains("--time")) {
+                return Long.parseLong(options.getFirst("--time"));
+            }
+            return AI.DEFAULT_TIME_LIMIT;
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+    }
+
+    /** Return the number of threads for each automated player given by
+     *  OPTIONS. */
+    private static int threads(CommandArgs options) {
+        try {
+            if (options.contains("--threads")) {
+                return Math.max(1, Integer.parseInt(
+                                       options.getFirst("--threads")));
+            }
+            return 1;
+        } catch (NumberFormatException excp) {
+            throw error("number too large");
+        }
+    }
+
     /** Return an appropriate Controller as indicated by OPTIONS. */
     private static Controller getController(CommandArgs options) {
         Player manualPlayer;
@@ -96,7 +168,12 @@ public class Main {
             }
         }
 
-        return new Controller(view, log, reporter, manualPlayer,
-                              new AI(), options.contains("--strict"));
+        return new Controller(new InputStreamReader(System.in), System.out,
+                              view, log, reporter, manualPlayer,
+                              new AI(timeLimit(options), threads(options),
+                                     options.contains("--smp"),
+                                     options.contains("--pvs"),
+                                     options.contains("--ponder")),
+                              options.contains("--strict"));
     }
 }
@@ -3,7 +3,6 @@ package tablut;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 import static tablut.Square.sq;
 import static tablut.Square.NUM_SQUARES;
@@ -21,7 +20,8 @@ final class Move {
 
     /** The syntax for a move, using either forms CR-C (horizontal moves)
      *  or CR-R (vertical moves), where C is a column letter (a-i or A-I) and
-     *  R is a row number (1-9). */
+     *  R is a row number (1-9).  This is the syntax recognized by
+     *  isGrammaticalMove and mv(String), for use in larger patterns. */
     static final Pattern MOVE_PATTERN =
         Pattern.compile(String.format("(([a-i])([1-9]))-(?:([a-i])|([1-9]))"));
 
@@ -38,37 +38,41 @@ final class Move {
     /** Return the unique Move FROM-TO, or null if this is not a valid
      *  move. */
     static Move mv(Square from, Square to) {
-        if ((from.row() != to.row() && from.col() != to.col()) || from == to) {
-            return null;
-        }
-
-        if (MOVES[from.index()][to.index()] == null) {
-            MOVES[from.index()][to.index()] = new Move(from, to);
-        }
         return MOVES[from.index()][to.index()];
     }
 
     /** Return the Move denoted by STR, if STR denotes a move with
      *  valid syntax, and null otherwise. */
     static Move mv(String str) {
-        _moveMatcher.reset(str);
-        if (_moveMatcher.matches()) {
-            Square from = sq(_moveMatcher.group(1));
-            Square to;
-            if (_moveMatcher.group(5) == null) {
-                to = sq(_moveMatcher.group(4), _moveMatcher.group(3));
-            } else {
-                to = sq(_moveMatcher.group(2), _moveMatcher.group(5));
-            }
-            return mv(from, to);
+        if (!isGrammaticalMove(str)) {
+            return null;
+        }
+        Square from = sq(str.charAt(0) - 'a', str.charAt(1) - '1');
+        char dest = str.charAt(3);
+        if (isColumn(dest)) {
+            return mv(from, sq(dest - 'a', from.row()));
+        } else {
+            return mv(from, sq(from.col(), dest - '1'));
         }
-        return null;
     }
 
-    /** Return true iff STR has the right format for a Move. */
+    /** Return true iff STR has the right format for a Move (that is,
+     *  matches MOVE_PATTERN). */
     static boolean isGrammaticalMove(String str) {
-        _moveMatcher.reset(str);
-        return _moveMatcher.matches();
+        return str.length() == 4
+            && isColumn(str.charAt(0)) && isRow(str.charAt(1))
+            && str.charAt(2) == '-'
+            && (isColumn(str.charAt(3)) || isRow(str.charAt(3)));
+    }
+
+    /** Return true iff C is a column letter. */
+    private static boolean isColumn(char c) {
+        return c >= 'a' && c <= 'i';
+    }
+
+    /** Return true iff C is a row number. */
+    private static boolean isRow(char c) {
+        return c >= '1' && c <= '9';
     }
 
     @Override
@@ -109,7 +113,10 @@ final class Move {
         return (_from.index() << 6) + _to.index();
     }
 
-    /** The cache of all Moves created. */
+    /** MOVES[i][j] is the Move from the square with index i to that with
+     *  index j, or null if there is no such rook move.  Filled once when
+     *  the class is initialized and never changed afterwards, so that any
+     *  thread may read it without synchronization. */
     private static final Move[][] MOVES = new Move[NUM_SQUARES][NUM_SQUARES];
 
     /** ROOK_MOVES[i][d] is a list of all rook moves in direction
@@ -120,7 +127,14 @@ final class Move {
 
     static {
         for (Square sq0 : SQUARE_LIST) {
-            int r0 = sq0.row(), c0 = sq0.col(), i0 = sq0.index();
+            for (Square sq1 : SQUARE_LIST) {
+                if (sq0.isRookMove(sq1)) {
+                    MOVES[sq0.index()][sq1.index()] = new Move(sq0, sq1);
+                }
+            }
+        }
+        for (Square sq0 : SQUARE_LIST) {
+            int i0 = sq0.index();
             for (int d = 0; d < 4; d += 1) {
                 ROOK_MOVES[i0][d] = new MoveList();
                 MoveList L = ROOK_MOVES[i0][d];
@@ -134,7 +148,5 @@ final class Move {
     /** The components of this Move. */
     private final Square _from, _to;
     /** The printed form of this Move. */
-    private String _str;
-    /**  A utility Matcher for moves, using MOVE_PATTERN. */
-    private static Matcher _moveMatcher = MOVE_PATTERN.matcher("");
+    private final String _str;
 }
@@ -0,0 +1,107 @@
+package tablut;
+
+import java.io.PrintStream;
+
+import tablut.Move.MoveList;
+
+/** Move-generation counts ("perft"): the number of positions reachable
+ *  in exactly N moves, found by generating, making, and undoing every
+ *  move.  A finished game has no moves.  Comparing counts catches move
+ *  generator regressions, and timing them measures its speed.
+ *  @author Thomas Nguyen
+ */
+final class Perft {
+
+    /** The greatest depth accepted by main and by the perft and divide
+     *  commands.  With about 80 moves per position, depth 5 takes about
+     *  a minute, and each further level some 80 times as long. */
+    static final int MAX_DEPTH = 5;
+
+    /** Print the perft count to depth ARGS[0] from the initial position,
+     *  divided by first move if ARGS[1] is "divide". */
+    public static void main(String... args) {
+        if (args.length < 1 || args.length > 2
+            || args.length == 2 && !args[1].equals("divide")) {
+            System.err.println("Usage: java tablut.Perft DEPTH [divide]");
+            System.exit(1);
+        }
+        int depth;
+        try {
+            depth = Integer.parseInt(args[0]);
+        } catch (NumberFormatException excp) {
+            depth = -1;
+        }
+        if (depth < 0 || depth > MAX_DEPTH) {
+            System.err.printf("Error: depth must be between 0 and %d%n",
+                              MAX_DEPTH);
+            System.exit(1);
+        }
+        report(new Board(), depth, args.length == 2, System.out);
+    }
+
+    /** Print the perft count to depth DEPTH from BOARD to OUT, followed
+     *  by the time taken and the number of positions reached per second.
+     *  If DIVIDE, first print the count below each legal move.  BOARD is
+     *  left as it was. */
+    static void report(Board board, int depth, boolean divide,
+                       PrintStream out) {
+        Perft perft = new Perft(depth);
+        long start = System.nanoTime();
+        long total;
+        if (divide && depth > 0 && board.winner() == null) {
+            total = 0;
+            MoveList moves = new MoveList();
+            board.legalMoves(board.turn(), moves);
+            for (Move mv : moves) {
+                board.makeMove(mv);
+                long count = perft.nodes(board, depth - 1);
+                board.undo();
+                out.printf("%s %d%n", mv, count);
+                total += count;
+            }
+        } else {
+            total = perft.nodes(board, depth);
+        }
+        long nanos = Math.max(1, System.nanoTime() - start);
+        out.printf("Nodes: %d  Time: %d ms  Nodes/second: %d%n", total,
+                   nanos / 1000000, (long) (total * 1e9 / nanos));
+    }
+
+    /** Return the number of positions reachable from BOARD in exactly
+     *  DEPTH moves, leaving BOARD as it was. */
+    static long count(Board board, int depth) {
+        return new Perft(depth).nodes(board, depth);
+    }
+
+    /** A counter for depths up to MAXDEPTH. */
+    private Perft(int maxDepth) {
+        _moveLists = new MoveList[maxDepth + 1];
+        for (int k = 0; k < _moveLists.length; k += 1) {
+            _moveLists[k] = new MoveList();
+        }
+    }
+
+    /** Return count(BOARD, DEPTH), using my move buffers. */
+    private long nodes(Board board, int depth) {
+        if (depth == 0) {
+            return 1;
+        } else if (board.winner() != null) {
+            return 0;
+        }
+        MoveList moves = _moveLists[depth];
+        board.legalMoves(board.turn(), moves);
+        if (depth == 1) {
+            return moves.size();
+        }
+        long total = 0;
+        for (Move mv : moves) {
+            board.makeMove(mv);
+            total += nodes(board, depth - 1);
+            board.undo();
+        }
+        return total;
+    }
+
+    /** Move buffers for each remaining depth. */
+    private final MoveList[] _moveLists;
+}
@@ -37,6 +37,12 @@ abstract class Player {
      *  is not null. */
     abstract String myMove();
 
+    /** Stop any thinking I am doing in the background about the current
+     *  game, such as searching during my opponent's turn.  I may still be
+     *  asked for moves afterward.  Does nothing by default. */
+    void stopPondering() {
+    }
+
     /** My Controller. */
     protected Controller _controller;
     /** The Piece I play (WHITE or BLACK). */
@@ -0,0 +1,146 @@
+package tablut;
+
+import java.util.Arrays;
+
+/** A multiset of positions, identified by their hash keys (see
+ *  Board.hashKey).  It is an open-addressed hash table with linear probing
+ *  mapping each key to the number of times it has been added, so that
+ *  adding, removing, and counting a position take constant expected time.
+ *  @author Thomas Nguyen
+ */
+final class PositionCounts {
+
+    /** An empty table. */
+    PositionCounts() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /** An empty table with room for about CAPACITY / 2 keys before it must
+     *  grow.  CAPACITY must be a power of 2. */
+    PositionCounts(int capacity) {
+        assert Integer.bitCount(capacity) == 1;
+        _keys = new long[capacity];
+        _counts = new int[capacity];
+    }
+
+    /** A copy of MODEL. */
+    PositionCounts(PositionCounts model) {
+        _keys = model._keys.clone();
+        _counts = model._counts.clone();
+        _size = model._size;
+    }
+
+    /** Return the number of times KEY has been added and not removed. */
+    int count(long key) {
+        int slot = find(key);
+        return _counts[slot];
+    }
+
+    /** Add one occurrence of KEY, returning its new count. */
+    int add(long key) {
+        int slot = find(key);
+        if (_counts[slot] == 0) {
+            if (2 * (_size + 1) > _keys.length) {
+                resize(2 * _keys.length);
+                slot = find(key);
+            }
+            _keys[slot] = key;
+            _size += 1;
+        }
+        _counts[slot] += 1;
+        return _counts[slot];
+    }
+
+    /** Remove one occurrence of KEY, if there is one, returning its new
+     *  count. */
+    int remove(long key) {
+        int slot = find(key);
+        if (_counts[slot] == 0) {
+            return 0;
+        }
+        _counts[slot] -= 1;
+        if (_counts[slot] == 0) {
+            delete(slot);
+            _size -= 1;
+            return 0;
+        }
+        return _counts[slot];
+    }
+
+    /** Add all occurrences of all keys in OTHER. */
+    void addAll(PositionCounts other) {
+        for (int i = 0; i < other._keys.length; i += 1) {
+            for (int k = other._counts[i]; k > 0; k -= 1) {
+                add(other._keys[i]);
+            }
+        }
+    }
+
+    /** Remove all keys. */
+    void clear() {
+        Arrays.fill(_counts, 0);
+        _size = 0;
+    }
+
+    /** Return the number of distinct keys present. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the slot holding KEY, or the empty slot at which it would be
+     *  inserted. */
+    private int find(long key) {
+        int mask = _keys.length - 1;
+        int slot = home(key);
+        while (_counts[slot] != 0 && _keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /** Return the first slot probed for KEY. */
+    private int home(long key) {
+        return (int) (key ^ (key >>> 32)) & (_keys.length - 1);
+    }
+
+    /** Empty SLOT, moving later keys of its probe run back so that every
+     *  remaining key is still reachable from its home slot. */
+    private void delete(int slot) {
+        int mask = _keys.length - 1;
+        int hole = slot;
+        for (int j = (slot + 1) & mask; _counts[j] != 0; j = (j + 1) & mask) {
+            int h = home(_keys[j]);
+            if (((j - h) & mask) >= ((j - hole) & mask)) {
+                _keys[hole] = _keys[j];
+                _counts[hole] = _counts[j];
+                hole = j;
+            }
+        }
+        _counts[hole] = 0;
+    }
+
+    /** Rehash all keys into tables of size CAPACITY. */
+    private void resize(int capacity) {
+        long[] keys = _keys;
+        int[] counts = _counts;
+        _keys = new long[capacity];
+        _counts = new int[capacity];
+        for (int i = 0; i < keys.length; i += 1) {
+            if (counts[i] != 0) {
+                int slot = find(keys[i]);
+                _keys[slot] = keys[i];
+                _counts[slot] = counts[i];
+            }
+        }
+    }
+
+    /** Initial number of slots. */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** The keys in each slot.  Meaningful only where _counts is non-zero. */
+    private long[] _keys;
+    /** The count of the key in each slot, or 0 for an empty slot. */
+    private int[] _counts;
+    /** Number of non-empty slots. */
+    private int _size;
+}
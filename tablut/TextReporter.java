@@ -1,24 +1,43 @@
 package tablut;
 
-/** A Reporter that uses the standard output for messaeges.
+import java.io.PrintStream;
+
+/** A Reporter that writes messages as text, by default on the standard
+ *  output.
  *  @author P. N. Hilfinger
  */
 class TextReporter implements Reporter {
 
+    /** A Reporter that writes notes and moves to the standard output
+     *  and errors to the standard error. */
+    TextReporter() {
+        this(System.out, System.err);
+    }
+
+    /** A Reporter that writes notes and moves to OUT and errors to
+     *  ERR. */
+    TextReporter(PrintStream out, PrintStream err) {
+        _out = out;
+        _err = err;
+    }
+
     @Override
     public void reportError(String fmt, Object... args) {
-        System.err.printf(fmt, args);
-        System.err.println();
+        _err.printf(fmt, args);
+        _err.println();
     }
 
     @Override
     public void reportNote(String fmt, Object... args) {
-        System.out.printf("* " + fmt, args);
-        System.out.println();
+        _out.printf("* " + fmt, args);
+        _out.println();
     }
 
     @Override
     public void reportMove(Move move) {
-        System.out.printf("* %s%n", move);
+        _out.printf("* %s%n", move);
     }
+
+    /** Destinations of notes and moves, and of errors. */
+    private final PrintStream _out, _err;
 }
@@ -0,0 +1,130 @@
+package tablut;
+
+import java.util.Arrays;
+
+import static tablut.Square.sq;
+
+/** A fixed-size cache of search results, indexed by position hash key
+ *  (see Board.hashKey).  Each entry occupies two adjacent longs of a single
+ *  array: the result packed as described at MOVE_SHIFT, and that result
+ *  XORed with the full key.  Within one search, a result gives way only
+ *  to that of a search at least as deep, or to an exact result for the
+ *  same position, while results left over from earlier searches are
+ *  always replaced.
+ *  Any number of threads may use a table at once without locking: if
+ *  two stores to a slot interleave, the check word no longer matches the
+ *  result word for either key, and the entry reads as absent.
+ *  @author Thomas Nguyen
+ */
+final class TranspositionTable {
+
+    /** Bound types: the stored score is exact, a lower bound on the true
+     *  score, or an upper bound on it. */
+    static final int EXACT = 1, LOWER = 2, UPPER = 3;
+
+    /** A table with 2**LOGSIZE entries. */
+    TranspositionTable(int logSize) {
+        _table = new long[2 << logSize];
+        _mask = (1 << logSize) - 1;
+    }
+
+    /** Return the packed result stored for the position with hash key
+     *  KEY, or 0 if there is none.  Decode it with score, depth, bound,
+     *  and move. */
+    long probe(long key) {
+        int i = slot(key);
+        long entry = _table[i + 1];
+        return (_table[i] ^ entry) == key ? entry : 0;
+    }
+
+    /** Record that a search of depth DEPTH from the position with hash key
+     *  KEY produced SCORE, which is of bound type BOUND, and chose MOVE
+     *  (null if none). */
+    void store(long key, int depth, int bound, int score, Move move) {
+        int i = slot(key);
+        long old = _table[i + 1];
+        if (old != 0 && age(old) == _age && depth(old) > depth
+            && ((_table[i] ^ old) != key || bound != EXACT)) {
+            return;
+        }
+        int mv = move == null ? 0
+            : (move.from().index() << SQUARE_BITS) | move.to().index();
+        long entry = (score & 0xffffffffL)
+            | ((long) mv << MOVE_SHIFT)
+            | ((long) bound << BOUND_SHIFT)
+            | ((long) depth << DEPTH_SHIFT)
+            | ((long) _age << AGE_SHIFT);
+        _table[i] = key ^ entry;
+        _table[i + 1] = entry;
+    }
+
+    /** Remove all entries. */
+    void clear() {
+        Arrays.fill(_table, 0);
+    }
+
+    /** Mark all current entries as belonging to an earlier search, so that
+     *  they give way to any new result. */
+    void newSearch() {
+        _age = (_age + 1) & FIELD_MASK;
+    }
+
+    /** Return the score in the packed result ENTRY. */
+    static int score(long entry) {
+        return (int) entry;
+    }
+
+    /** Return the search depth in the packed result ENTRY. */
+    static int depth(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT) & FIELD_MASK;
+    }
+
+    /** Return the bound type (EXACT, LOWER, or UPPER) in the packed result
+     *  ENTRY. */
+    static int bound(long entry) {
+        return (int) (entry >>> BOUND_SHIFT) & BOUND_MASK;
+    }
+
+    /** Return the best move in the packed result ENTRY, or null if none
+     *  was recorded. */
+    static Move move(long entry) {
+        int mv = (int) (entry >>> MOVE_SHIFT) & MOVE_MASK;
+        if (mv == 0) {
+            return null;
+        }
+        return Move.mv(sq(mv >>> SQUARE_BITS), sq(mv & SQUARE_MASK));
+    }
+
+    /** Return the search number in the packed result ENTRY. */
+    private static int age(long entry) {
+        return (int) (entry >>> AGE_SHIFT) & FIELD_MASK;
+    }
+
+    /** Return the index in _table of the entry for KEY. */
+    private int slot(long key) {
+        return ((int) (key ^ (key >>> 32)) & _mask) << 1;
+    }
+
+    /** Layout of a packed result: the score occupies bits 0-31, the move
+     *  (from-square index * 128 + to-square index, or 0) bits 32-45, the
+     *  bound type bits 46-47, the depth bits 48-55, and the number of the
+     *  search that stored it bits 56-63. */
+    private static final int
+        MOVE_SHIFT = 32, BOUND_SHIFT = 46, DEPTH_SHIFT = 48, AGE_SHIFT = 56;
+
+    /** Width of a square index within a packed move. */
+    private static final int SQUARE_BITS = 7;
+
+    /** Masks for fields of a packed result. */
+    private static final int
+        SQUARE_MASK = (1 << SQUARE_BITS) - 1,
+        MOVE_MASK = (1 << (2 * SQUARE_BITS)) - 1,
+        BOUND_MASK = 0x3, FIELD_MASK = 0xff;
+
+    /** Check words (key XOR result) and packed results, alternating. */
+    private final long[] _table;
+    /** Number of entries less 1. */
+    private final int _mask;
+    /** Number of the current search, modulo 256. */
+    private volatile int _age;
+}
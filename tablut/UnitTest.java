@@ -1,5 +1,19 @@
 package tablut;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 import ucb.junit.textui;
@@ -71,7 +85,516 @@ public class UnitTest {
         B.makeMove(Board.THRONE, Board.WTHRONE);
 
     }
-}
 
+    /** Moves parse in both the CR-C and the CR-R forms. */
+    @Test
+    public void moveSyntax() {
+        Move mv = Move.mv("e3-b");
+        assertEquals(Square.sq("e3"), mv.from());
+        assertEquals(Square.sq("b3"), mv.to());
+        assertSame(mv, Move.mv(Square.sq("e3"), Square.sq("b3")));
+        assertEquals(Square.sq("e7"), Move.mv("e3-7").to());
+        assertNull(Move.mv("e3-e"));
+        assertNull(Move.mv("e3-b3"));
+        assertNull(Move.mv("j3-b"));
+        assertFalse(Move.isGrammaticalMove("e3-0"));
+        assertTrue(Move.isGrammaticalMove("e3-3"));
+    }
+
+    /** Rook moves may not pass over pieces in any direction. */
+    @Test
+    public void blockedMoves() {
+        Board b = new Board();
+        assertFalse(b.isUnblockedMove(Square.sq("i5"), Square.sq("f5")));
+        assertFalse(b.isUnblockedMove(Square.sq("a5"), Square.sq("d5")));
+        assertFalse(b.isUnblockedMove(Square.sq("e9"), Square.sq("e6")));
+        assertFalse(b.isUnblockedMove(Square.sq("e1"), Square.sq("e4")));
+        assertTrue(b.isUnblockedMove(Square.sq("i4"), Square.sq("f4")));
+        assertFalse(b.isLegal(Square.sq("i5"), Square.sq("b5")));
+        assertEquals(16, b.pieceCount(Piece.BLACK));
+        assertEquals(9, b.pieceCount(Piece.WHITE));
+    }
+
+    /** Transposed move orders reach the same hash key, and undoing a
+     *  move restores the previous key. */
+    @Test
+    public void hashKeys() {
+        Board b1 = new Board(), b2 = new Board();
+        long initial = b1.hashKey();
+        b1.makeMove(Move.mv("d1-c"));
+        b1.makeMove(Move.mv("e3-b"));
+        b1.makeMove(Move.mv("f1-g"));
+        b2.makeMove(Move.mv("f1-g"));
+        b2.makeMove(Move.mv("e3-b"));
+        b2.makeMove(Move.mv("d1-c"));
+        assertEquals(b1.hashKey(), b2.hashKey());
+        b1.undo();
+        b1.undo();
+        b1.undo();
+        assertEquals(initial, b1.hashKey());
+    }
+
+    /** Within one search, a table entry gives way only to a result at
+     *  least as deep or to an exact result for the same position, and
+     *  any entry gives way once a new search starts. */
+    @Test
+    public void tableReplacement() {
+        TranspositionTable table = new TranspositionTable(4);
+        long key = 12345, rival = key + 16;
+        table.store(key, 5, TranspositionTable.LOWER, 100, Move.mv("e3-b"));
+        table.store(key, 2, TranspositionTable.UPPER, -7, null);
+        assertEquals(5, TranspositionTable.depth(table.probe(key)));
+        assertEquals(Move.mv("e3-b"),
+                     TranspositionTable.move(table.probe(key)));
+        table.store(key, 2, TranspositionTable.EXACT, 40, null);
+        assertEquals(40, TranspositionTable.score(table.probe(key)));
+        table.store(rival, 1, TranspositionTable.EXACT, 3, null);
+        assertEquals(0, table.probe(rival));
+        table.newSearch();
+        table.store(rival, 1, TranspositionTable.UPPER, 3, null);
+        assertEquals(0, table.probe(key));
+        assertEquals(1, TranspositionTable.depth(table.probe(rival)));
+    }
+
+    /** Putting a second king demotes the first one, and the hash key and
+     *  evaluation still describe the board. */
+    @Test
+    public void secondKing() {
+        Board b = new Board();
+        b.put(Piece.KING, Square.sq("e7"));
+        Board c = new Board();
+        c.put(Piece.WHITE, Board.THRONE);
+        c.put(Piece.KING, Square.sq("e7"));
+        assertEquals(Piece.WHITE, b.get(Board.THRONE));
+        assertEquals(c.hashKey(), b.hashKey());
+        assertEquals(c.evaluation(), b.evaluation());
+    }
+
+    /** Recreating an earlier position loses, and can be undone. */
+    @Test
+    public void repetition() {
+        Board b = new Board();
+        b.makeMove(Move.mv("a4-3"));
+        b.makeMove(Move.mv("e3-d"));
+        b.makeMove(Move.mv("a3-4"));
+        assertFalse(b.repeatedPosition());
+        b.makeMove(Move.mv("d3-e"));
+        assertTrue(b.repeatedPosition());
+        assertEquals(Piece.BLACK, b.winner());
+        b.undo();
+        assertFalse(b.repeatedPosition());
+        assertNull(b.winner());
+        assertEquals(3, b.moveCount());
+    }
+
+    /** A snapshot plays independently of its original, but still sees
+     *  repetitions of positions reached before it was made. */
+    @Test
+    public void snapshots() {
+        Board b = new Board();
+        b.makeMove(Move.mv("a4-3"));
+        b.makeMove(Move.mv("e3-d"));
+        String before = b.encodedBoard();
+        Board s = b.snapshot();
+        s.makeMove(Move.mv("a3-4"));
+        assertEquals(before, b.encodedBoard());
+        assertEquals(2, b.moveCount());
+        s.makeMove(Move.mv("d3-e"));
+        assertTrue(s.repeatedPosition());
+        assertEquals(Piece.BLACK, s.winner());
+        s.undo();
+        s.undo();
+        s.undo();
+        assertEquals(before, s.encodedBoard());
+        assertNull(b.winner());
+    }
+
+    /** Return a board with BLACK to move that holds just the king on
+     *  square KING, WHITE pieces on the squares listed in WHITE, and BLACK
+     *  pieces on those listed in BLACK (lists are separated by blanks). */
+    private static Board setUp(String king, String white, String black) {
+        Board b = new Board();
+        for (Square sq : Square.SQUARE_LIST) {
+            b.put(Piece.EMPTY, sq);
+        }
+        b.put(Piece.KING, Square.sq(king));
+        for (String sq : white.split(" ")) {
+            if (!sq.isEmpty()) {
+                b.put(Piece.WHITE, Square.sq(sq));
+            }
+        }
+        for (String sq : black.split(" ")) {
+            if (!sq.isEmpty()) {
+                b.put(Piece.BLACK, Square.sq(sq));
+            }
+        }
+        b.clearUndo();
+        return b;
+    }
+
+    /** The king on the throne is captured only when surrounded on all
+     *  four sides. */
+    @Test
+    public void kingOnThrone() {
+        Board b = setUp("e5", "", "d5 f5 e4 e8");
+        b.makeMove(Move.mv("e8-6"));
+        assertNull(b.kingPosition());
+        assertEquals(Piece.BLACK, b.winner());
+        b = setUp("e5", "", "d5 f5 a4 e8");
+        b.makeMove(Move.mv("e8-6"));
+        assertEquals(Board.THRONE, b.kingPosition());
+        assertNull(b.winner());
+    }
+
+    /** The king next to the throne is captured by attackers on its three
+     *  other sides, but not by two on opposite sides. */
+    @Test
+    public void kingNextToThrone() {
+        Board b = setUp("e6", "", "d6 f6 i7");
+        b.makeMove(Move.mv("i7-e"));
+        assertNull(b.kingPosition());
+        assertEquals(Piece.BLACK, b.winner());
+        b = setUp("e6", "", "d6 f9");
+        b.makeMove(Move.mv("f9-6"));
+        assertEquals(Square.sq("e6"), b.kingPosition());
+        assertNull(b.winner());
+    }
+
+    /** Away from the throne, the king is captured between two attackers
+     *  like any other piece. */
+    @Test
+    public void kingAwayFromThrone() {
+        Board b = setUp("c3", "", "b3 d1");
+        b.makeMove(Move.mv("d1-3"));
+        assertNull(b.kingPosition());
+        assertEquals(Piece.BLACK, b.winner());
+    }
+
+    /** The throne, occupied by the king, is hostile to a white piece next
+     *  to it when three of its neighbors are black. */
+    @Test
+    public void occupiedThroneHostile() {
+        Board b = setUp("e5", "e6", "d5 f5 e4 e9");
+        b.makeMove(Move.mv("e9-7"));
+        assertEquals(Piece.EMPTY, b.get(Square.sq("e6")));
+        assertEquals(Board.THRONE, b.kingPosition());
+        b = setUp("e5", "e6", "d5 f5 a4 e9");
+        b.makeMove(Move.mv("e9-7"));
+        assertEquals(Piece.WHITE, b.get(Square.sq("e6")));
+    }
+
+    /** The capture generator finds a custodial capture, and neither side
+     *  has king-escape moves at the start. */
+    @Test
+    public void moveSubsets() {
+        Board b = new Board();
+        Move.MoveList moves = new Move.MoveList();
+        b.kingEscapeMoves(moves);
+        assertTrue(moves.isEmpty());
+        b.escapeBlockingMoves(moves);
+        assertTrue(moves.isEmpty());
+        b.makeMove(Move.mv("f1-3"));
+        b.makeMove(Move.mv("e7-h"));
+        b.captureMoves(Piece.BLACK, moves);
+        assertTrue(moves.contains(Move.mv("d1-3")));
+        for (Move mv : moves) {
+            assertTrue(b.isCapture(mv));
+        }
+        b.makeMove(Move.mv("d1-3"));
+        assertEquals(Piece.EMPTY, b.get(Square.sq("e3")));
+        assertEquals(8, b.pieceCount(Piece.WHITE));
+    }
+
+    /** Move generation from the initial position reaches the known
+     *  numbers of positions, and leaves the board unchanged. */
+    @Test
+    public void perft() {
+        Board b = new Board();
+        String initial = b.encodedBoard();
+        assertEquals(80, Perft.count(b, 1));
+        assertEquals(4400, Perft.count(b, 2));
+        assertEquals(353200, Perft.count(b, 3));
+        assertEquals(initial, b.encodedBoard());
+        assertEquals(0, b.moveCount());
+    }
+
+    /** Below the depth at which it starts reducing moves, principal
+     *  variation search gives each position the same value as plain
+     *  alpha-beta. */
+    @Test
+    public void pvsMatchesAlphaBeta() {
+        AI alphaBeta = new AI(1000, 1, false, false);
+        AI pvs = new AI(1000, 1, false, true);
+        Board b = new Board();
+        String[] moves = {
+            "f1-3", "e7-h", "d1-3", "e6-g", "a4-c", "e4-g", "i6-h", "c5-7",
+        };
+        for (String mv : moves) {
+            for (int depth = 1; depth <= 2; depth += 1) {
+                alphaBeta.clearTable();
+                pvs.clearTable();
+                assertEquals(b.toString(), alphaBeta.findValue(b, depth),
+                             pvs.findValue(b, depth));
+            }
+            b.makeMove(Move.mv(mv));
+        }
+    }
+
+    /** Alpha-beta does not choose a move whose value is only a bound
+     *  equal to the best so far: here e9-7 fails low at depth 1, and
+     *  White answers it with f6-i. */
+    @Test
+    public void alphaBetaAvoidsRefutedMove() {
+        Board b = new Board();
+        String[] moves = {
+            "f9-8", "e7-c", "a6-c", "e6-7", "i6-e", "f5-2", "e8-c", "e5-f",
+            "h5-3", "f5-6",
+        };
+        for (String mv : moves) {
+            b.makeMove(Move.mv(mv));
+        }
+        for (int depth = 1; depth <= 2; depth += 1) {
+            Move pvsMove = new AI(1000, 1, false, true).findMove(b, depth);
+            Move alphaBetaMove =
+                new AI(1000, 1, false, false).findMove(b, depth);
+            assertEquals(Move.mv("h3-6"), pvsMove);
+            assertEquals(pvsMove, alphaBetaMove);
+        }
+    }
+
+    /** Return a controller with no input and discarded output, whose
+     *  automated players are made from AUTOPLAYERTEMPLATE, and whose
+     *  board is at the position reached by f1-3 e7-h. */
+    private static Controller testController(Player autoPlayerTemplate) {
+        PrintStream out = new PrintStream(new ByteArrayOutputStream(), true);
+        Controller controller =
+            new Controller(new StringReader(""), out, new NullView(), null,
+                           new TextReporter(out, out), new TextPlayer(),
+                           autoPlayerTemplate, false);
+        controller.board().makeMove(Move.mv("f1-3"));
+        controller.board().makeMove(Move.mv("e7-h"));
+        return controller;
+    }
+
+    /** Assert that PLAYER, an automated player for the side to move on
+     *  its controller's board, chooses a legal move and leaves the board
+     *  as it was. */
+    private static void checkAutoMove(Player player) {
+        Board board = player.board();
+        String before = board.encodedBoard();
+        int moveCount = board.moveCount();
+        Move mv = Move.mv(player.myMove());
+        assertNotNull(mv);
+        assertTrue(board.isLegal(mv));
+        assertEquals(before, board.encodedBoard());
+        assertEquals(moveCount, board.moveCount());
+    }
+
+    /** An automated player that divides the moves at the root among
+     *  several threads chooses a legal move. */
+    @Test
+    public void rootSplitMove() {
+        AI template = new AI(100, 3, false, false);
+        Controller controller = testController(template);
+        checkAutoMove(template.create(Piece.BLACK, controller));
+    }
+
+    /** An automated player using Lazy SMP chooses a legal move, both with
+     *  its own pool and with one shared with other players. */
+    @Test
+    public void lazySMPMove() {
+        AI template = new AI(100, 4, true, false);
+        checkAutoMove(template.create(Piece.BLACK, testController(template)));
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            AI shared = new AI(100, 2, true, true, pool, 16);
+            checkAutoMove(shared.create(Piece.BLACK, testController(shared)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** A pondering player keeps searching after its move, without
+     *  changing the live board, until stopPondering, which waits for the
+     *  search to end. */
+    @Test
+    public void pondering() {
+        AI template = new AI(100, 1, false, false, true);
+        AI player = (AI) template.create(Piece.BLACK,
+                                         testController(template));
+        checkAutoMove(player);
+        assertTrue(player.pondering());
+        player.stopPondering();
+        assertFalse(player.pondering());
+    }
+
+    /** An automated player that plays the first legal move, and that
+     *  counts the calls to its stopPondering. */
+    private static class PonderProbe extends Player {
+
+        /** A template that records the players it creates in MADE. */
+        PonderProbe(List<PonderProbe> made) {
+            this(null, null, made);
+        }
 
+        /** A probe playing PIECE under CONTROLLER, whose template records
+         *  its creations in MADE. */
+        private PonderProbe(Piece piece, Controller controller,
+                            List<PonderProbe> made) {
+            super(piece, controller);
+            _made = made;
+        }
 
+        @Override
+        Player create(Piece piece, Controller controller) {
+            PonderProbe probe = new PonderProbe(piece, controller, _made);
+            _made.add(probe);
+            return probe;
+        }
+
+        @Override
+        boolean isManual() {
+            return false;
+        }
+
+        @Override
+        String myMove() {
+            Move.MoveList moves = new Move.MoveList();
+            board().legalMoves(myPiece(), moves);
+            return moves.get(0).toString();
+        }
+
+        @Override
+        void stopPondering() {
+            _stops += 1;
+        }
+
+        /** Where my template records the players it creates. */
+        private final List<PonderProbe> _made;
+        /** Number of calls to stopPondering. */
+        private int _stops;
+    }
+
+    /** The controller tells automated players to stop pondering when it
+     *  replaces them, when the position is reset or undone, and when
+     *  play ends. */
+    @Test
+    public void controllerStopsPondering() {
+        List<PonderProbe> made = new ArrayList<>();
+        PrintStream out = new PrintStream(new ByteArrayOutputStream(), true);
+        Controller controller =
+            new Controller(new StringReader("a4-3\nmanual white\n"
+                                            + "auto white\nnew\na4-3\n"
+                                            + "undo\nquit\n"),
+                           out, new NullView(), null,
+                           new TextReporter(out, out), new TextPlayer(),
+                           new PonderProbe(made), false);
+        controller.play();
+        assertEquals(2, made.size());
+        assertEquals(1, made.get(0)._stops);
+        assertEquals(3, made.get(1)._stops);
+    }
+
+    /** Sessions on one host play at once without disturbing each
+     *  other. */
+    @Test
+    public void concurrentSessions() throws Exception {
+        GameHost host = new GameHost(2, 10, 1, false, false);
+        ByteArrayOutputStream[] outs = new ByteArrayOutputStream[4];
+        Future<?>[] games = new Future<?>[outs.length];
+        for (int k = 0; k < outs.length; k += 1) {
+            outs[k] = new ByteArrayOutputStream();
+            games[k] = host.start(new StringReader("a4-3\ndump\nquit\n"),
+                                  new PrintStream(outs[k], true))
+                .finished();
+        }
+        for (Future<?> game : games) {
+            game.get();
+        }
+        host.shutdown();
+        for (ByteArrayOutputStream out : outs) {
+            String text = out.toString();
+            assertTrue(text.contains("* "));
+            assertTrue(text.contains("==="));
+            assertFalse(text.contains("rror"));
+        }
+    }
+
+    /** Sessions refuse perft and divide at depths that would keep their
+     *  threads busy for minutes. */
+    @Test
+    public void sessionPerftLimit() throws Exception {
+        GameHost host = new GameHost(1, 10, 1, false, false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        host.start(new StringReader("perft 5\ndivide 9\nperft 1\nquit\n"),
+                   new PrintStream(out, true)).finished().get();
+        host.shutdown();
+        String text = out.toString();
+        assertEquals(3, text.split("Error: depth must be between 0 and 4",
+                                   -1).length);
+        assertTrue(text.contains("Nodes: 80 "));
+    }
+
+    /** A client of a GameServer receives the same responses as a user
+     *  of Main, and the server closes the connection after "quit". */
+    @Test
+    public void server() throws Exception {
+        GameServer server =
+            new GameServer(new GameHost(1, 10, 1, false, false),
+                           new InetSocketAddress(
+                               InetAddress.getLoopbackAddress(), 0));
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException excp) {
+                throw new RuntimeException(excp);
+            }
+        });
+        serving.start();
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(),
+                                        server.port())) {
+            client.getOutputStream().write(
+                "limit 3\na4-3\nauto black\nquit\n".getBytes(
+                    StandardCharsets.UTF_8));
+            InputStream in = client.getInputStream();
+            String text = new String(in.readAllBytes(),
+                                     StandardCharsets.UTF_8);
+            assertTrue(text.matches("(?s).*\\* [a-i][1-9]-.*"));
+            assertTrue(text.matches("(?s).*\\* (Black|White) wins\\..*"));
+        } finally {
+            server.close();
+            serving.join();
+        }
+    }
+
+    /** A GameServer stops a session whose client has closed its side of
+     *  the connection, even if automated players are still playing. */
+    @Test
+    public void abandonedSession() throws Exception {
+        GameServer server =
+            new GameServer(new GameHost(1, 1000, 1, false, false),
+                           new InetSocketAddress(
+                               InetAddress.getLoopbackAddress(), 0));
+        Thread serving = new Thread(() -> {
+            try {
+                server.serve();
+            } catch (IOException excp) {
+                throw new RuntimeException(excp);
+            }
+        });
+        serving.start();
+        try (Socket client = new Socket(InetAddress.getLoopbackAddress(),
+                                        server.port())) {
+            client.setSoTimeout(10000);
+            client.getOutputStream().write(
+                "auto black\nauto white\n".getBytes(StandardCharsets.UTF_8));
+            client.shutdownOutput();
+            String text = new String(client.getInputStream().readAllBytes(),
+                                     StandardCharsets.UTF_8);
+            assertFalse(text.contains("wins"));
+        } finally {
+            server.close();
+            serving.join();
+        }
+    }
+}